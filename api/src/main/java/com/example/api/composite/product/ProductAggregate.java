@@ -1,5 +1,6 @@
 package com.example.api.composite.product;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import java.util.List;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
@@ -11,7 +12,16 @@ public class ProductAggregate {
   private final int productId;
   private final String name;
   private final int weight;
+
+  // Sections not asked for with a sparse fieldset, or that didn't arrive in time, are left out
+  @JsonInclude(JsonInclude.Include.NON_NULL)
   private final List<RecommendationSummary> recommendations;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
   private final List<ReviewSummary> reviews;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
   private final ServiceAddress serviceAddress;
+
+  // Names the optional sections left out since they didn't arrive in time, null if complete
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private final List<String> missingSections;
 }
@@ -0,0 +1,15 @@
+package com.example.api.composite.product;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+@Getter
+public class ProductAggregatePart {
+
+  public enum Type {PRODUCT, RECOMMENDATION, REVIEW}
+
+  private final Type type;
+  private final int productId;
+  private final Object data;
+}
@@ -4,12 +4,15 @@ import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
+import java.util.List;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @Api(description = "REST API for composite product information.")
@@ -27,7 +30,10 @@ public interface ProductCompositeService {
       value = "/product-composite",
       consumes = "application/json"
   )
-  Mono<Void> createCompositeProduct(@RequestBody ProductAggregate body);
+  Mono<Void> createCompositeProduct(
+      @RequestBody ProductAggregate body,
+      @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey
+  );
 
   @ApiOperation(
       value = "${api.product-composite.get-composite-product.description}",
@@ -45,9 +51,39 @@ public interface ProductCompositeService {
   Mono<ProductAggregate> getCompositeProduct(
       @PathVariable int productId,
       @RequestParam(value = "delay", required = false, defaultValue = "0") int delay,
-      @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent
+      @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent,
+      @RequestParam(value = "fields", required = false) List<String> fields
   );
 
+  @ApiOperation(
+      value = "${api.product-composite.stream-composite-product.description}",
+      notes = "${api.product-composite.stream-composite-product.notes}"
+  )
+  @ApiResponses(value = {
+      @ApiResponse(code = 400, message = "Bad Request, invalid format of the request. See response message for more information."),
+      @ApiResponse(code = 404, message = "Not found, the specified id does not exist."),
+      @ApiResponse(code = 422, message = "Unprocessable entity, input parameters caused the processing to fails. See response message for more information.")
+  })
+  @GetMapping(
+      value = "/product-composite/{productId}/stream",
+      produces = {"application/x-ndjson", "text/event-stream"}
+  )
+  Flux<ProductAggregatePart> streamCompositeProduct(@PathVariable int productId);
+
+  @ApiOperation(
+      value = "${api.product-composite.get-composite-products.description}",
+      notes = "${api.product-composite.get-composite-products.notes}"
+  )
+  @ApiResponses(value = {
+      @ApiResponse(code = 400, message = "Bad Request, invalid format of the request. See response message for more information."),
+      @ApiResponse(code = 422, message = "Unprocessable entity, input parameters caused the processing to fails. See response message for more information.")
+  })
+  @GetMapping(
+      value = "/product-composite",
+      produces = "application/json"
+  )
+  Flux<ProductAggregate> getCompositeProducts(@RequestParam(value = "ids") List<Integer> productIds);
+
   @ApiOperation(
       value = "${api.product-composite.delete-composite-product.description}",
       notes = "${api.product-composite.delete-composite-product.notes}"
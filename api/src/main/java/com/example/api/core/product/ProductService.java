@@ -1,14 +1,16 @@
 package com.example.api.core.product;
 
+import java.util.List;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface ProductService {
 
-  Product createProduct(@RequestBody Product body);
+  Mono<Product> createProduct(@RequestBody Product body);
 
   @GetMapping(
       value = "/product/{productId}",
@@ -20,5 +22,11 @@ public interface ProductService {
       @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent
   );
 
-  void deleteProduct(@PathVariable int productId);
+  @GetMapping(
+      value = "/product",
+      produces = "application/json"
+  )
+  Flux<Product> getProducts(@RequestParam(value = "productIds") List<Integer> productIds);
+
+  Mono<Void> deleteProduct(@PathVariable int productId);
 }
@@ -1,13 +1,15 @@
 package com.example.api.core.recommendation;
 
+import java.util.List;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 public interface RecommendationService {
 
-  Recommendation createRecommendation(@RequestBody Recommendation body);
+  Flux<Recommendation> createRecommendations(@RequestBody List<Recommendation> body);
 
   @GetMapping(
       value = "/recommendation",
@@ -17,5 +19,14 @@ public interface RecommendationService {
       @RequestParam(value = "productId") int productId
   );
 
-  void deleteRecommendations(@RequestParam(value = "productId") int productId);
+  @GetMapping(
+      value = "/recommendation",
+      params = "productIds",
+      produces = "application/json"
+  )
+  Flux<Recommendation> getRecommendationsForProducts(
+      @RequestParam(value = "productIds") List<Integer> productIds
+  );
+
+  Mono<Void> deleteRecommendations(@RequestParam(value = "productId") int productId);
 }
@@ -1,13 +1,15 @@
 package com.example.api.core.review;
 
+import java.util.List;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 public interface ReviewService {
 
-  Review createReview(@RequestBody Review body);
+  Flux<Review> createReviews(@RequestBody List<Review> body);
 
   @GetMapping(
       value = "/review",
@@ -15,5 +17,12 @@ public interface ReviewService {
   )
   Flux<Review> getReviews(@RequestParam(value = "productId") int productId);
 
-  void deleteReviews(@RequestParam(value = "productId") int productId);
+  @GetMapping(
+      value = "/review",
+      params = "productIds",
+      produces = "application/json"
+  )
+  Flux<Review> getReviewsForProducts(@RequestParam(value = "productIds") List<Integer> productIds);
+
+  Mono<Void> deleteReviews(@RequestParam(value = "productId") int productId);
 }
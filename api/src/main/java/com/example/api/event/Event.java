@@ -2,6 +2,7 @@ package com.example.api.event;
 
 import static java.time.LocalDateTime.now;
 
+import com.fasterxml.jackson.annotation.JsonFormat;
 import java.time.LocalDateTime;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -14,6 +15,8 @@ public class Event<K, T> {
 
   private Event.Type eventType;
   private K key;
+  // Bulk events carry a list, single values sent by older publishers are read as a list of one
+  @JsonFormat(with = JsonFormat.Feature.ACCEPT_SINGLE_VALUE_AS_ARRAY)
   private T data;
   private LocalDateTime eventCreatedAt;
 
@@ -0,0 +1,97 @@
+package com.example.microservices.composite.product;
+
+import com.example.microservices.composite.product.services.AdaptiveConcurrencyLimit;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+// Admits requests to the composite API up to an adaptive concurrency limit. Requests above the
+// limit are rejected at once, before security and before any work is queued for them.
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@Slf4j
+public class ConcurrencyLimitFilter implements WebFilter {
+
+  private static final PathPattern LIMITED_PATHS =
+      PathPatternParser.defaultInstance.parse("/product-composite/**");
+
+  // A stream stays open as long as the client reads it, its duration is no response time. It would
+  // hold a permit for all that time and skew the response times the limit follows.
+  private static final PathPattern STREAM_PATH =
+      PathPatternParser.defaultInstance.parse("/product-composite/*/stream");
+
+  private final boolean enabled;
+  private final String retryAfterSec;
+  private final AdaptiveConcurrencyLimit limit;
+
+  public ConcurrencyLimitFilter(
+      MeterRegistry meterRegistry,
+      @Value("${app.concurrency-limit.inbound.enabled:true}") boolean enabled,
+      @Value("${app.concurrency-limit.inbound.initialLimit:50}") int initialLimit,
+      @Value("${app.concurrency-limit.inbound.minLimit:10}") int minLimit,
+      @Value("${app.concurrency-limit.inbound.maxLimit:1000}") int maxLimit,
+      @Value("${app.concurrency-limit.inbound.smoothing:0.2}") double smoothing,
+      @Value("${app.concurrency-limit.inbound.rttTolerance:1.5}") double rttTolerance,
+      @Value("${app.concurrency-limit.inbound.retryAfterSec:1}") int retryAfterSec
+  ) {
+    this.enabled = enabled;
+    this.retryAfterSec = String.valueOf(retryAfterSec);
+    this.limit = new AdaptiveConcurrencyLimit("inbound", meterRegistry, initialLimit, minLimit,
+        maxLimit, smoothing, rttTolerance);
+  }
+
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+    if (!enabled || !isLimited(exchange.getRequest().getPath().pathWithinApplication())) {
+      return chain.filter(exchange);
+    }
+
+    if (!limit.tryAcquire()) {
+      limit.recordRejected();
+      log.debug("Rejects {}, concurrency limit {} reached", exchange.getRequest().getPath(),
+          limit.getLimit());
+      ServerHttpResponse response = exchange.getResponse();
+      response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+      response.getHeaders().set(HttpHeaders.RETRY_AFTER, retryAfterSec);
+      return response.setComplete();
+    }
+
+    long start = System.nanoTime();
+    return chain.filter(exchange)
+        .doFinally(signal -> release(exchange, signal, start));
+  }
+
+  private static boolean isLimited(PathContainer path) {
+    return LIMITED_PATHS.matches(path) && !STREAM_PATH.matches(path);
+  }
+
+  // Server errors and failures count as drops, client errors are regular responses
+  private void release(ServerWebExchange exchange, SignalType signal, long start) {
+    if (signal == SignalType.CANCEL) {
+      limit.releaseIgnored();
+      return;
+    }
+
+    HttpStatus status = exchange.getResponse().getStatusCode();
+    if (signal == SignalType.ON_ERROR || (status != null && status.is5xxServerError())) {
+      limit.releaseDropped();
+    } else {
+      limit.release(Duration.ofNanos(System.nanoTime() - start));
+    }
+  }
+}
@@ -4,13 +4,26 @@ import static java.util.Collections.emptyList;
 import static springfox.documentation.builders.RequestHandlerSelectors.basePackage;
 import static springfox.documentation.spi.DocumentationType.SWAGGER_2;
 
+import com.example.microservices.composite.product.services.StageTimers;
+import com.example.microservices.composite.product.services.TimedJackson2JsonEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.Duration;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.web.codec.CodecCustomizer;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 import springfox.documentation.builders.PathSelectors;
 import springfox.documentation.service.ApiInfo;
 import springfox.documentation.service.Contact;
@@ -58,13 +71,70 @@ public class ProductCompositeServiceApplication {
         ));
   }
 
+  // One pool shared by all calls to the core services, exports reactor.netty.connection.provider.*
+  @Bean(destroyMethod = "dispose")
+  public ConnectionProvider coreServicesConnectionProvider(
+      @Value("${app.http-client.pool.maxConnections:500}") int maxConnections,
+      @Value("${app.http-client.pool.pendingAcquireMaxCount:1000}") int pendingAcquireMaxCount,
+      @Value("${app.http-client.pool.pendingAcquireTimeoutMs:2000}") long pendingAcquireTimeoutMs,
+      @Value("${app.http-client.pool.maxIdleTimeMs:30000}") long maxIdleTimeMs,
+      @Value("${app.http-client.pool.evictInBackgroundMs:60000}") long evictInBackgroundMs
+  ) {
+    return ConnectionProvider.builder("core-services")
+        .maxConnections(maxConnections)
+        .pendingAcquireMaxCount(pendingAcquireMaxCount)
+        .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMs))
+        .maxIdleTime(Duration.ofMillis(maxIdleTimeMs))
+        .evictInBackground(Duration.ofMillis(evictInBackgroundMs))
+        .metrics(true)
+        .build();
+  }
+
   @Bean
   @LoadBalanced
-  public WebClient.Builder loadBalancedWebClientBuilder() {
-    final WebClient.Builder builder = WebClient.builder();
+  public WebClient.Builder loadBalancedWebClientBuilder(
+      ConnectionProvider coreServicesConnectionProvider,
+      @Value("${app.http-client.h2c.enabled:false}") boolean h2cEnabled
+  ) {
+    HttpClient httpClient = HttpClient.create(coreServicesConnectionProvider);
+
+    // Cleartext HTTP/2 multiplexes the fan-out over a few connections, falls back to HTTP/1.1
+    if (h2cEnabled) {
+      httpClient = httpClient.protocol(HttpProtocol.H2C, HttpProtocol.HTTP11);
+    }
+
+    final WebClient.Builder builder = WebClient.builder()
+        .clientConnector(new ReactorClientHttpConnector(httpClient));
     return builder;
   }
 
+  // Runs the blocking sends of events to the broker, keeping them off the event loop
+  @Bean(destroyMethod = "dispose")
+  public Scheduler publishEventScheduler(
+      @Value("${app.event-publisher.threadPoolSize:10}") int threadPoolSize,
+      @Value("${app.event-publisher.taskQueueSize:100}") int taskQueueSize
+  ) {
+    return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "publish-pool");
+  }
+
+  // Runs the blocking appends to the outbox, with their fsync, on the request path. Kept apart
+  // from the publish scheduler, so a slow broker holding up the relay doesn't hold up requests.
+  @Bean(destroyMethod = "dispose")
+  public Scheduler outboxAppendScheduler(
+      @Value("${app.outbox.append.threadPoolSize:10}") int threadPoolSize,
+      @Value("${app.outbox.append.taskQueueSize:100}") int taskQueueSize
+  ) {
+    return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "outbox-append-pool");
+  }
+
+  // Applied after Spring Boot's Jackson codec customizer to replace its encoder
+  @Bean
+  @Order(Ordered.LOWEST_PRECEDENCE)
+  public CodecCustomizer timedJacksonCodecCustomizer(ObjectMapper mapper, StageTimers stageTimers) {
+    return configurer -> configurer.defaultCodecs()
+        .jackson2JsonEncoder(new TimedJackson2JsonEncoder(mapper, stageTimers));
+  }
+
   public static void main(String[] args) {
     SpringApplication.run(ProductCompositeServiceApplication.class, args);
   }
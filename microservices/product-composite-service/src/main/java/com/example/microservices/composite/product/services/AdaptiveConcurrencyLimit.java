@@ -0,0 +1,130 @@
+package com.example.microservices.composite.product.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Concurrency limit that follows the gradient between the long term and the recent response
+// times. While responses are as fast as usual the limit grows by about its square root, when
+// they slow down, i.e. requests start to queue up somewhere, it shrinks towards what is served
+// without queueing. Dropped calls, e.g. timeouts, shrink the limit at once.
+public class AdaptiveConcurrencyLimit {
+
+  private static final double SHORT_RTT_SMOOTHING = 0.1;
+  private static final double LONG_RTT_SMOOTHING = 1.0 / 600;
+  private static final double MIN_GRADIENT = 0.5;
+  private static final double DROP_BACKOFF = 0.9;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double smoothing;
+  private final double rttTolerance;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final Counter rejected;
+
+  private volatile double limit;
+  private double shortRtt = 0;
+  private double longRtt = 0;
+
+  public AdaptiveConcurrencyLimit(
+      String name,
+      MeterRegistry meterRegistry,
+      int initialLimit,
+      int minLimit,
+      int maxLimit,
+      double smoothing,
+      double rttTolerance
+  ) {
+    this.limit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.smoothing = smoothing;
+    this.rttTolerance = rttTolerance;
+
+    Gauge.builder("composite.concurrency.limit", this, AdaptiveConcurrencyLimit::getLimit)
+        .description("Current concurrency limit")
+        .tag("limiter", name)
+        .register(meterRegistry);
+    Gauge.builder("composite.concurrency.in-flight", inFlight, AtomicInteger::get)
+        .description("Calls currently admitted by the concurrency limit")
+        .tag("limiter", name)
+        .register(meterRegistry);
+    this.rejected = Counter.builder("composite.concurrency.rejected")
+        .description("Calls rejected since the concurrency limit was reached")
+        .tag("limiter", name)
+        .register(meterRegistry);
+  }
+
+  public int getLimit() {
+    return (int) limit;
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  // Every acquired permit must be given back with one of the release methods
+  public boolean tryAcquire() {
+    while (true) {
+      int current = inFlight.get();
+      if (current >= getLimit()) {
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  // Calls that could not wait for a permit, as opposed to calls that got one a bit later
+  public void recordRejected() {
+    rejected.increment();
+  }
+
+  public void release(Duration rtt) {
+    int admitted = inFlight.getAndDecrement();
+    update(rtt.toNanos(), admitted);
+  }
+
+  public void releaseDropped() {
+    inFlight.decrementAndGet();
+    synchronized (this) {
+      limit = Math.max(minLimit, limit * DROP_BACKOFF);
+    }
+  }
+
+  // Gives the permit back without learning anything, e.g. for calls cancelled by the client
+  public void releaseIgnored() {
+    inFlight.decrementAndGet();
+  }
+
+  private synchronized void update(long rtt, int admitted) {
+    if (longRtt == 0) {
+      shortRtt = rtt;
+      longRtt = rtt;
+      return;
+    }
+
+    shortRtt = shortRtt * (1 - SHORT_RTT_SMOOTHING) + rtt * SHORT_RTT_SMOOTHING;
+    longRtt = longRtt * (1 - LONG_RTT_SMOOTHING) + rtt * LONG_RTT_SMOOTHING;
+
+    // Recover faster after a long period of high latency than the long term average alone would
+    if (longRtt / shortRtt > 2) {
+      longRtt *= 0.95;
+    }
+
+    double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, rttTolerance * longRtt / shortRtt));
+
+    // Don't grow a limit that isn't used, it would no longer say anything about the capacity
+    if (gradient >= 1.0 && admitted < limit / 2) {
+      return;
+    }
+
+    double newLimit = limit * gradient + Math.sqrt(limit);
+    newLimit = limit * (1 - smoothing) + newLimit * smoothing;
+    limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+  }
+}
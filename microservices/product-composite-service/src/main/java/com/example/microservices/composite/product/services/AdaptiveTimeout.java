@@ -0,0 +1,107 @@
+package com.example.microservices.composite.product.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeoutException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Timeout for calls to one backend, derived from a percentile of its recent response times
+// multiplied by a factor and kept between a floor and a ceiling.
+public class AdaptiveTimeout {
+
+  private final String backend;
+  private final LatencyTracker latency;
+  private final double percentile;
+  private final double factor;
+  private final Duration floor;
+  private final Duration ceiling;
+
+  public AdaptiveTimeout(
+      String backend,
+      MeterRegistry meterRegistry,
+      LatencyTracker latency,
+      double percentile,
+      double factor,
+      Duration floor,
+      Duration ceiling
+  ) {
+    this.backend = backend;
+    this.latency = latency;
+    this.percentile = percentile;
+    this.factor = factor;
+    this.floor = floor;
+    this.ceiling = ceiling;
+
+    Gauge.builder("composite.backend.timeout", this, t -> t.current().toMillis())
+        .description("Current effective timeout for calls to a backend")
+        .tag("backend", backend)
+        .baseUnit("milliseconds")
+        .register(meterRegistry);
+  }
+
+  // Falls back to the ceiling until enough latency samples have been recorded
+  public Duration current() {
+    return latency.percentile(percentile)
+        .map(p -> Duration.ofNanos((long) (p.toNanos() * factor)))
+        .map(t -> t.compareTo(floor) < 0 ? floor : t)
+        .map(t -> t.compareTo(ceiling) > 0 ? ceiling : t)
+        .orElse(ceiling);
+  }
+
+  public Duration getCeiling() {
+    return ceiling;
+  }
+
+  public Optional<Duration> latencyPercentile(double percentile) {
+    return latency.percentile(percentile);
+  }
+
+  // Calls that time out are recorded at the timeout, so a backend that stops answering pushes the
+  // timeout up towards the ceiling instead of leaving only its fast answers in the samples
+  public <T> Mono<T> apply(Mono<T> call) {
+    return Mono.defer(() -> {
+      long start = System.nanoTime();
+      Duration timeout = current();
+      return call
+          .timeout(timeout)
+          .doOnSuccess(value -> record(start))
+          .doOnError(ex -> record(start, timeout, ex));
+    });
+  }
+
+  // The timeout covers the whole Flux, not only the time between two elements
+  public <T> Flux<T> apply(Flux<T> call) {
+    return Flux.defer(() -> {
+      long start = System.nanoTime();
+      Duration timeout = current();
+      return within(call.doOnComplete(() -> record(start)), timeout)
+          .doOnError(ex -> record(start, timeout, ex));
+    });
+  }
+
+  // For batch calls, which take longer than single ones, the ceiling applies to the whole Flux.
+  // They are not recorded, so they don't stretch the timeout of the single calls.
+  public <T> Flux<T> applyCeiling(Flux<T> call) {
+    return within(call, ceiling);
+  }
+
+  private <T> Flux<T> within(Flux<T> call, Duration timeout) {
+    return call.takeUntilOther(Mono.delay(timeout).then(Mono.error(() -> new TimeoutException(
+        "Did not complete a call to " + backend + " within " + timeout.toMillis() + " ms"))));
+  }
+
+  private void record(long start) {
+    latency.record(Duration.ofNanos(System.nanoTime() - start));
+  }
+
+  private void record(long start, Duration timeout, Throwable error) {
+    if (error instanceof TimeoutException) {
+      latency.record(timeout);
+    } else {
+      record(start);
+    }
+  }
+}
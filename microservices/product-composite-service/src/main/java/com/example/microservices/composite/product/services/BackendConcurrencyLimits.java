@@ -0,0 +1,42 @@
+package com.example.microservices.composite.product.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+@Component
+@Getter
+public class BackendConcurrencyLimits {
+
+  private final OutboundConcurrencyLimiter product;
+  private final OutboundConcurrencyLimiter recommendation;
+  private final OutboundConcurrencyLimiter review;
+
+  public BackendConcurrencyLimits(
+      MeterRegistry meterRegistry,
+      @Value("${app.concurrency-limit.backends.initialLimit:20}") int initialLimit,
+      @Value("${app.concurrency-limit.backends.minLimit:2}") int minLimit,
+      @Value("${app.concurrency-limit.backends.maxLimit:200}") int maxLimit,
+      @Value("${app.concurrency-limit.backends.smoothing:0.2}") double smoothing,
+      @Value("${app.concurrency-limit.backends.rttTolerance:2.0}") double rttTolerance,
+      @Value("${app.concurrency-limit.backends.maxQueued:50}") int maxQueued,
+      @Value("${app.concurrency-limit.backends.maxQueueWaitMs:100}") long maxQueueWaitMs
+  ) {
+    Duration maxQueueWait = Duration.ofMillis(maxQueueWaitMs);
+
+    this.product = new OutboundConcurrencyLimiter("product", meterRegistry,
+        new AdaptiveConcurrencyLimit("product", meterRegistry, initialLimit, minLimit, maxLimit,
+            smoothing, rttTolerance),
+        maxQueued, maxQueueWait);
+    this.recommendation = new OutboundConcurrencyLimiter("recommendation", meterRegistry,
+        new AdaptiveConcurrencyLimit("recommendation", meterRegistry, initialLimit, minLimit,
+            maxLimit, smoothing, rttTolerance),
+        maxQueued, maxQueueWait);
+    this.review = new OutboundConcurrencyLimiter("review", meterRegistry,
+        new AdaptiveConcurrencyLimit("review", meterRegistry, initialLimit, minLimit, maxLimit,
+            smoothing, rttTolerance),
+        maxQueued, maxQueueWait);
+  }
+}
@@ -0,0 +1,36 @@
+package com.example.microservices.composite.product.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+@Component
+@Getter
+public class BackendTimeouts {
+
+  private final AdaptiveTimeout product;
+  private final AdaptiveTimeout recommendation;
+  private final AdaptiveTimeout review;
+
+  public BackendTimeouts(
+      MeterRegistry meterRegistry,
+      @Value("${app.backend-timeouts.windowSize:1000}") int windowSize,
+      @Value("${app.backend-timeouts.minSamples:100}") int minSamples,
+      @Value("${app.backend-timeouts.percentile:0.99}") double percentile,
+      @Value("${app.backend-timeouts.factor:2.0}") double factor,
+      @Value("${app.backend-timeouts.floorMs:250}") long floorMs,
+      @Value("${app.backend-timeouts.ceilingMs:2000}") long ceilingMs
+  ) {
+    Duration floor = Duration.ofMillis(floorMs);
+    Duration ceiling = Duration.ofMillis(ceilingMs);
+
+    this.product = new AdaptiveTimeout("product", meterRegistry,
+        new LatencyTracker(windowSize, minSamples), percentile, factor, floor, ceiling);
+    this.recommendation = new AdaptiveTimeout("recommendation", meterRegistry,
+        new LatencyTracker(windowSize, minSamples), percentile, factor, floor, ceiling);
+    this.review = new AdaptiveTimeout("review", meterRegistry,
+        new LatencyTracker(windowSize, minSamples), percentile, factor, floor, ceiling);
+  }
+}
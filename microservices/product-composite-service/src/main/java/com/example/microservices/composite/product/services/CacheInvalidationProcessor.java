@@ -0,0 +1,65 @@
+package com.example.microservices.composite.product.services;
+
+import static com.example.api.event.Event.Type.DELETE;
+
+import com.example.api.event.Event;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.annotation.Input;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.messaging.SubscribableChannel;
+
+@EnableBinding(CacheInvalidationProcessor.MessageSinks.class)
+@RequiredArgsConstructor
+@Slf4j
+public class CacheInvalidationProcessor {
+
+  public interface MessageSinks {
+
+    String INPUT_PRODUCTS = "input-products";
+    String INPUT_RECOMMENDATIONS = "input-recommendations";
+    String INPUT_REVIEWS = "input-reviews";
+
+    @Input(INPUT_PRODUCTS)
+    SubscribableChannel inputProducts();
+
+    @Input(INPUT_RECOMMENDATIONS)
+    SubscribableChannel inputRecommendations();
+
+    @Input(INPUT_REVIEWS)
+    SubscribableChannel inputReviews();
+  }
+
+  private final ProductAggregateCache cache;
+  private final LastKnownGoodProductStore lastKnownGood;
+
+  @StreamListener(target = MessageSinks.INPUT_PRODUCTS)
+  public void processProductEvent(Event<Integer, Object> event) {
+    invalidate("product", event);
+    if (event.getEventType() == DELETE && event.getKey() != null) {
+      lastKnownGood.evict(event.getKey());
+    }
+  }
+
+  @StreamListener(target = MessageSinks.INPUT_RECOMMENDATIONS)
+  public void processRecommendationEvent(Event<Integer, Object> event) {
+    invalidate("recommendation", event);
+  }
+
+  @StreamListener(target = MessageSinks.INPUT_REVIEWS)
+  public void processReviewEvent(Event<Integer, Object> event) {
+    invalidate("review", event);
+  }
+
+  private void invalidate(String source, Event<Integer, Object> event) {
+    if (event.getKey() == null) {
+      log.warn("Ignore {} event without a key, created at {}", source, event.getEventCreatedAt());
+      return;
+    }
+
+    log.debug("Invalidate cached aggregate for productId: {} on {} {} event",
+        event.getKey(), source, event.getEventType());
+    cache.invalidate(event.getKey());
+  }
+}
@@ -0,0 +1,474 @@
+package com.example.microservices.composite.product.services;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.stream.Collectors.toList;
+
+import com.example.api.event.Event;
+import com.example.microservices.composite.product.services.ProductCompositeIntegration.MessageSources;
+import com.example.util.exceptions.ServiceUnavailableException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import javax.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+// Events are appended to a local log on the request path and relayed to the broker in batches by
+// a background relay, decoupling request latency from broker latency. The log is split in segment
+// files, a segment is deleted once all of its events are relayed.
+// The relay is at least once, events relayed but not yet committed are sent again after a restart.
+// Events with the same key are relayed in the order they were appended.
+@Component
+@Slf4j
+public class EventOutbox {
+
+  private static final int INITIAL_READ_BYTES = 1024 * 1024;
+
+  // Segments are named by the log offset of their first entry
+  private static final Pattern SEGMENT_NAME = Pattern.compile("events-(\\d+)\\.log");
+
+  @NoArgsConstructor
+  @AllArgsConstructor
+  @Getter
+  static class Entry {
+
+    private String binding;
+    private Event<Integer, Object> event;
+  }
+
+  @RequiredArgsConstructor
+  @Getter
+  private static class StoredEntry {
+
+    private final Entry entry;
+
+    // Offset in the log right after this entry
+    private final long end;
+  }
+
+  private final boolean enabled;
+  private final ObjectMapper mapper;
+  private final EventPublisher eventPublisher;
+  private final Scheduler publishEventScheduler;
+  private final Scheduler outboxAppendScheduler;
+  private final Map<String, MessageChannel> channels;
+  private final boolean fsync;
+  private final long segmentBytes;
+  private final long maxPendingEvents;
+  private final int batchSize;
+  private final int maxInFlight;
+
+  private final AtomicLong pending = new AtomicLong();
+  private final Counter appendedEvents;
+  private final Counter relayedEvents;
+
+  // Open segments by the log offset of their first entry, events are appended to the last one
+  private final NavigableMap<Long, FileChannel> segments = new TreeMap<>();
+  private final Object syncLock = new Object();
+  private final AtomicLong syncedOffset = new AtomicLong();
+
+  private Path directory;
+  private Path offsetFile;
+  private long appendedOffset;
+  private long relayedOffset;
+  private Disposable relay;
+
+  public EventOutbox(
+      ObjectMapper mapper,
+      EventPublisher eventPublisher,
+      Scheduler publishEventScheduler,
+      Scheduler outboxAppendScheduler,
+      MessageSources messageSources,
+      MeterRegistry meterRegistry,
+      @Value("${app.outbox.enabled:false}") boolean enabled,
+      @Value("${app.outbox.directory:}") String directory,
+      @Value("${app.outbox.fsync:true}") boolean fsync,
+      @Value("${app.outbox.segmentBytes:67108864}") long segmentBytes,
+      @Value("${app.outbox.maxPendingEvents:100000}") long maxPendingEvents,
+      @Value("${app.outbox.relay.batchSize:100}") int batchSize,
+      @Value("${app.outbox.relay.maxInFlight:10}") int maxInFlight,
+      @Value("${app.outbox.relay.pollIntervalMs:100}") long pollIntervalMs
+  ) throws IOException {
+    this.enabled = enabled;
+    this.mapper = mapper;
+    this.eventPublisher = eventPublisher;
+    this.publishEventScheduler = publishEventScheduler;
+    this.outboxAppendScheduler = outboxAppendScheduler;
+    this.channels = Map.of(
+        MessageSources.OUTPUT_PRODUCTS, messageSources.outputProducts(),
+        MessageSources.OUTPUT_RECOMMENDATIONS, messageSources.outputRecommendations(),
+        MessageSources.OUTPUT_REVIEWS, messageSources.outputReviews()
+    );
+    this.fsync = fsync;
+    this.segmentBytes = segmentBytes;
+    this.maxPendingEvents = maxPendingEvents;
+    this.batchSize = batchSize;
+    this.maxInFlight = maxInFlight;
+
+    this.appendedEvents = eventCounter(meterRegistry, "appended");
+    this.relayedEvents = eventCounter(meterRegistry, "relayed");
+    meterRegistry.gauge("composite.outbox.pending", pending);
+
+    if (enabled) {
+      // Events in the outbox are only stored there, a temporary directory would lose them
+      if (directory.isBlank()) {
+        throw new IllegalStateException(
+            "The outbox is enabled, app.outbox.directory must be set to a durable directory");
+      }
+      open(Paths.get(directory));
+      startRelay(Duration.ofMillis(pollIntervalMs));
+    }
+  }
+
+  private static Counter eventCounter(MeterRegistry meterRegistry, String state) {
+    return Counter.builder("composite.outbox.events")
+        .description("Events appended to the outbox and relayed from it to the broker")
+        .tag("state", state)
+        .register(meterRegistry);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  // Completes once the event is stored in the outbox, the broker is not involved. Appends run on
+  // their own scheduler, the relay's reads and sends can't delay them.
+  public Mono<Void> append(String binding, Event<?, ?> event) {
+    return Mono.fromRunnable(() -> write(binding, event))
+        .subscribeOn(outboxAppendScheduler)
+        .then();
+  }
+
+  @PreDestroy
+  public void close() throws IOException {
+    if (relay != null) {
+      relay.dispose();
+    }
+    synchronized (this) {
+      for (FileChannel segment : segments.values()) {
+        segment.close();
+      }
+    }
+  }
+
+  private void open(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    this.directory = directory;
+    offsetFile = directory.resolve("relayed.offset");
+
+    // The log of an outbox written before it was split in segments is the first segment
+    Path unsegmentedLog = directory.resolve("events.log");
+    if (Files.exists(unsegmentedLog)) {
+      Files.move(unsegmentedLog, segmentPath(0));
+    }
+
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : files.collect(toList())) {
+        Matcher segment = SEGMENT_NAME.matcher(file.getFileName().toString());
+        if (segment.matches()) {
+          openSegment(Long.parseLong(segment.group(1)));
+        }
+      }
+    }
+    if (segments.isEmpty()) {
+      openSegment(0);
+    }
+
+    Map.Entry<Long, FileChannel> last = segments.lastEntry();
+    dropPartialEntry(last.getValue());
+    appendedOffset = last.getKey() + last.getValue().size();
+    syncedOffset.set(appendedOffset);
+
+    relayedOffset = Files.exists(offsetFile) ?
+        Long.parseLong(Files.readString(offsetFile, UTF_8).trim()) : 0;
+    // A segment is only deleted after the relayed offset has passed it, but the end of the log may
+    // be lost if it wasn't synced
+    relayedOffset = Math.min(Math.max(relayedOffset, segments.firstKey()), appendedOffset);
+
+    pending.set(countLines(relayedOffset));
+    log.info("Opened the outbox in {} with {} segments, {} events not yet relayed", directory,
+        segments.size(), pending.get());
+  }
+
+  private void startRelay(Duration pollInterval) {
+    // Drains full batches back to back, then waits for the next poll
+    relay = Flux.interval(pollInterval)
+        .onBackpressureDrop()
+        .concatMap(tick -> Mono.defer(this::relayBatch)
+            .repeat()
+            .takeUntil(full -> !full)
+            .then(), 1)
+        .subscribe();
+  }
+
+  private void write(String binding, Event<?, ?> event) {
+    long end = append(binding, event);
+    if (fsync) {
+      sync(end);
+    }
+    appendedEvents.increment();
+  }
+
+  // Returns the offset in the log right after the appended entry
+  private synchronized long append(String binding, Event<?, ?> event) {
+    if (pending.get() >= maxPendingEvents) {
+      throw new ServiceUnavailableException(
+          "The event outbox is full with " + pending.get() + " events not yet relayed");
+    }
+
+    try {
+      byte[] json = mapper.writeValueAsBytes(new Entry(binding, (Event<Integer, Object>) event));
+      ByteBuffer line = ByteBuffer.allocate(json.length + 1).put(json).put((byte) '\n').flip();
+      FileChannel segment = activeSegment(line.remaining());
+      long position = appendedOffset - segments.lastKey();
+      while (line.hasRemaining()) {
+        position += segment.write(line, position);
+      }
+      appendedOffset = segments.lastKey() + position;
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+
+    pending.incrementAndGet();
+    return appendedOffset;
+  }
+
+  // Group commit, appends are not synced one by one. Writers that wait while a sync is running are
+  // covered together by the next sync, of everything appended until then.
+  private void sync(long end) {
+    synchronized (syncLock) {
+      if (syncedOffset.get() >= end) {
+        return;
+      }
+
+      long syncTo;
+      FileChannel segment;
+      synchronized (this) {
+        syncTo = appendedOffset;
+        segment = segments.lastEntry().getValue();
+      }
+
+      try {
+        segment.force(false);
+      } catch (ClosedChannelException ex) {
+        // The segment was left, and synced, and has been relayed and deleted since
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+      syncedOffset.accumulateAndGet(syncTo, Math::max);
+    }
+  }
+
+  // Starts a new segment when the entry doesn't fit in the current one, entries never span segments
+  private FileChannel activeSegment(int entryBytes) throws IOException {
+    Map.Entry<Long, FileChannel> active = segments.lastEntry();
+    long size = appendedOffset - active.getKey();
+    if (size == 0 || size + entryBytes <= segmentBytes) {
+      return active.getValue();
+    }
+
+    // A segment is synced when it's left, so syncs only need to force the last segment
+    if (fsync) {
+      active.getValue().force(false);
+      syncedOffset.accumulateAndGet(appendedOffset, Math::max);
+    }
+    return openSegment(appendedOffset);
+  }
+
+  // Emits true if a full batch was relayed and there may be more to relay
+  private Mono<Boolean> relayBatch() {
+    return Mono.fromCallable(this::readBatch)
+        .subscribeOn(publishEventScheduler)
+        .flatMap(batch -> {
+          if (batch.isEmpty()) {
+            return Mono.just(false);
+          }
+
+          // Sends are pipelined over lanes by event key, one after the other within a lane, so
+          // events with the same key reach the broker in log order
+          boolean[] relayed = new boolean[batch.size()];
+          return Flux.range(0, batch.size())
+              .groupBy(i -> lane(batch.get(i)))
+              .flatMap(lane -> lane.concatMap(i -> publish(batch.get(i))
+                  .doOnSuccess(done -> relayed[i] = true)), maxInFlight)
+              .then(Mono.just(batch.size() == batchSize))
+              .onErrorResume(ex -> {
+                log.warn("Relay of outbox events failed, will retry: {}", ex.toString());
+                return Mono.just(false);
+              })
+              .flatMap(full -> Mono.fromRunnable(() -> commit(batch, relayed))
+                  .subscribeOn(publishEventScheduler)
+                  .thenReturn(full));
+        })
+        .onErrorResume(ex -> {
+          log.error("Failed to relay outbox events: {}", ex.toString());
+          return Mono.just(false);
+        });
+  }
+
+  private int lane(StoredEntry stored) {
+    return Math.floorMod(Objects.hashCode(stored.getEntry().getEvent().getKey()), maxInFlight);
+  }
+
+  private Mono<Void> publish(StoredEntry stored) {
+    Entry entry = stored.getEntry();
+    return eventPublisher.publish(entry.getBinding(), channels.get(entry.getBinding()),
+        entry.getEvent());
+  }
+
+  // Only synced entries are relayed, an entry lost in a crash must not have been sent
+  private synchronized List<StoredEntry> readBatch() throws IOException {
+    List<StoredEntry> batch = new ArrayList<>();
+    long readable = fsync ? syncedOffset.get() : appendedOffset;
+    long offset = relayedOffset;
+    int readBytes = INITIAL_READ_BYTES;
+
+    while (batch.size() < batchSize && offset < readable) {
+      Map.Entry<Long, FileChannel> segment = segments.floorEntry(offset);
+      Long nextSegment = segments.higherKey(offset);
+      long available = (nextSegment != null ? Math.min(nextSegment, readable) : readable) - offset;
+
+      ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(available, readBytes));
+      segment.getValue().read(buffer, offset - segment.getKey());
+      byte[] bytes = buffer.array();
+
+      int lineStart = 0;
+      for (int i = 0; i < buffer.position() && batch.size() < batchSize; i++) {
+        if (bytes[i] == '\n') {
+          Entry entry = mapper.readValue(bytes, lineStart, i - lineStart, Entry.class);
+          batch.add(new StoredEntry(entry, offset + i + 1));
+          lineStart = i + 1;
+        }
+      }
+
+      if (lineStart == 0) {
+        if (buffer.position() == available) {
+          // Only a partly written entry, it's picked up on the next poll
+          break;
+        }
+        readBytes *= 2;
+      }
+      offset += lineStart;
+    }
+
+    return batch;
+  }
+
+  // Commits the relayed prefix of the batch, events after a failed one are relayed again
+  private void commit(List<StoredEntry> batch, boolean[] relayed) {
+    int count = 0;
+    while (count < relayed.length && relayed[count]) {
+      count++;
+    }
+    if (count == 0) {
+      return;
+    }
+
+    commit(batch.get(count - 1).getEnd());
+    pending.addAndGet(-count);
+    relayedEvents.increment(count);
+  }
+
+  private synchronized void commit(long relayedTo) {
+    try {
+      relayedOffset = relayedTo;
+
+      Path tempFile = offsetFile.resolveSibling(offsetFile.getFileName() + ".tmp");
+      Files.writeString(tempFile, Long.toString(relayedOffset), UTF_8);
+      Files.move(tempFile, offsetFile, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+
+      // Segments that end before the relayed offset are compacted away, the last one is kept
+      while (segments.size() > 1 && segments.higherKey(segments.firstKey()) <= relayedOffset) {
+        Map.Entry<Long, FileChannel> segment = segments.pollFirstEntry();
+        segment.getValue().close();
+        Files.delete(segmentPath(segment.getKey()));
+        log.debug("Deleted the relayed outbox segment starting at offset {}", segment.getKey());
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  private FileChannel openSegment(long startOffset) throws IOException {
+    FileChannel segment = FileChannel.open(segmentPath(startOffset), CREATE, READ, WRITE);
+    segments.put(startOffset, segment);
+    return segment;
+  }
+
+  private Path segmentPath(long startOffset) {
+    return directory.resolve(String.format("events-%020d.log", startOffset));
+  }
+
+  // Drops an entry that was partly written when the service stopped, its append never completed
+  private void dropPartialEntry(FileChannel segment) throws IOException {
+    ByteBuffer lastByte = ByteBuffer.allocate(1);
+    long end = segment.size();
+    while (end > 0) {
+      lastByte.clear();
+      segment.read(lastByte, end - 1);
+      if (lastByte.get(0) == '\n') {
+        break;
+      }
+      end--;
+    }
+
+    if (end < segment.size()) {
+      log.warn("Drops a partly written outbox entry of {} bytes", segment.size() - end);
+      segment.truncate(end);
+    }
+  }
+
+  private long countLines(long from) throws IOException {
+    long lines = 0;
+    ByteBuffer buffer = ByteBuffer.allocate(INITIAL_READ_BYTES);
+    long firstSegment = segments.floorKey(from);
+    for (Map.Entry<Long, FileChannel> segment : segments.tailMap(firstSegment, true).entrySet()) {
+      long position = Math.max(0, from - segment.getKey());
+      int read;
+      while ((read = segment.getValue().read(buffer, position)) > 0) {
+        for (int i = 0; i < read; i++) {
+          if (buffer.get(i) == '\n') {
+            lines++;
+          }
+        }
+        position += read;
+        buffer.clear();
+      }
+    }
+    return lines;
+  }
+}
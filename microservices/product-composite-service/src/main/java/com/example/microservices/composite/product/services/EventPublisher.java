@@ -0,0 +1,98 @@
+package com.example.microservices.composite.product.services;
+
+import com.example.api.event.Event;
+import com.example.util.exceptions.ServiceUnavailableException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+@Component
+@Slf4j
+public class EventPublisher {
+
+  private final Scheduler publishEventScheduler;
+  private final MeterRegistry meterRegistry;
+  private final boolean confirmsEnabled;
+  private final Duration confirmTimeout;
+
+  public EventPublisher(
+      Scheduler publishEventScheduler,
+      MeterRegistry meterRegistry,
+      @Value("${app.event-publisher.confirms.enabled:false}") boolean confirmsEnabled,
+      @Value("${app.event-publisher.confirms.timeoutMs:5000}") long confirmTimeoutMs
+  ) {
+    this.publishEventScheduler = publishEventScheduler;
+    this.meterRegistry = meterRegistry;
+    this.confirmsEnabled = confirmsEnabled;
+    this.confirmTimeout = Duration.ofMillis(confirmTimeoutMs);
+  }
+
+  // Sends run on the publish scheduler, never on the event loop, so several events can be sent
+  // at once. With confirms enabled the returned Mono completes when the broker has acked the event.
+  public Mono<Void> publish(String destination, MessageChannel channel, Event<?, ?> event) {
+    return Mono.defer(() -> {
+      CorrelationData correlation = confirmsEnabled ? new CorrelationData() : null;
+
+      MessageBuilder<Event<?, ?>> builder = MessageBuilder.withPayload(event);
+      if (correlation != null) {
+        builder.setHeader(AmqpHeaders.PUBLISH_CONFIRM_CORRELATION, correlation);
+      }
+      Message<Event<?, ?>> message = builder.build();
+
+      Mono<Void> send = Mono.<Void>fromRunnable(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            channel.send(message);
+            sample.stop(timer("composite.publish.send", destination, "sent"));
+          })
+          .subscribeOn(publishEventScheduler);
+
+      return correlation == null ? send : send.then(awaitConfirm(destination, correlation));
+    });
+  }
+
+  private Mono<Void> awaitConfirm(String destination, CorrelationData correlation) {
+    return Mono.defer(() -> {
+      Timer.Sample sample = Timer.start(meterRegistry);
+
+      return Mono.fromFuture(correlation.getFuture().completable())
+          .timeout(confirmTimeout)
+          .onErrorMap(TimeoutException.class, ex -> {
+            sample.stop(timer("composite.publish.confirm", destination, "timeout"));
+            return new ServiceUnavailableException(
+                "No confirm from the broker for an event to " + destination + " within "
+                    + confirmTimeout.toMillis() + " ms");
+          })
+          .flatMap(confirm -> {
+            if (!confirm.isAck()) {
+              sample.stop(timer("composite.publish.confirm", destination, "nack"));
+              log.warn("Event to {} was nacked by the broker: {}", destination, confirm.getReason());
+              return Mono.<Void>error(new ServiceUnavailableException(
+                  "Event to " + destination + " was not accepted by the broker"));
+            }
+
+            sample.stop(timer("composite.publish.confirm", destination, "ack"));
+            return Mono.<Void>empty();
+          });
+    });
+  }
+
+  private Timer timer(String name, String destination, String result) {
+    return Timer.builder(name)
+        .description(name.endsWith("send") ?
+            "Time to send an event to the broker" : "Time from send until the broker confirmed")
+        .tags("destination", destination, "result", result)
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+  }
+}
@@ -0,0 +1,125 @@
+package com.example.microservices.composite.product.services;
+
+import com.example.util.exceptions.InvalidInputException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+// Remembers the outcome of requests by their Idempotency-Key, so client retries are answered
+// without doing the work again. Entries expire after a while and the store is bounded in size.
+@Component
+@Slf4j
+public class IdempotencyStore {
+
+  @RequiredArgsConstructor
+  @Getter
+  private static class StoredRequest {
+
+    // Hash of the request the key was first used for, reusing it for another request is rejected
+    private final String fingerprint;
+    private final Mono<Void> result;
+  }
+
+  private final ObjectMapper mapper;
+  private final Cache<String, StoredRequest> store;
+  private final int maxKeyLength;
+
+  private final Counter firstCalls;
+  private final Counter replayedCalls;
+
+  public IdempotencyStore(
+      ObjectMapper mapper,
+      MeterRegistry meterRegistry,
+      @Value("${app.product-composite.idempotency.expireAfterWriteSec:86400}") long expireAfterWriteSec,
+      @Value("${app.product-composite.idempotency.maxWeightBytes:10485760}") long maxWeightBytes,
+      @Value("${app.product-composite.idempotency.maxKeyLength:255}") int maxKeyLength
+  ) {
+    this.mapper = mapper;
+    this.maxKeyLength = maxKeyLength;
+
+    this.store = Caffeine.newBuilder()
+        .expireAfterWrite(Duration.ofSeconds(expireAfterWriteSec))
+        .maximumWeight(maxWeightBytes)
+        .weigher((String key, StoredRequest stored) -> estimateSize(key, stored))
+        .recordStats()
+        .build();
+
+    CaffeineCacheMetrics.monitor(meterRegistry, store, "idempotency-keys");
+
+    this.firstCalls = idempotencyCounter(meterRegistry, "first");
+    this.replayedCalls = idempotencyCounter(meterRegistry, "replayed");
+  }
+
+  private static Counter idempotencyCounter(MeterRegistry meterRegistry, String type) {
+    return Counter.builder("composite.idempotency.calls")
+        .description("Calls with an idempotency key, by whether they did the work or were replayed")
+        .tag("type", type)
+        .register(meterRegistry);
+  }
+
+  // The first call for a key runs, later calls with the same key and request get its result,
+  // also while it is still running. Failed calls are forgotten so the client can retry them.
+  public Mono<Void> execute(String key, Object request, Supplier<Mono<Void>> call) {
+    return Mono.defer(() -> {
+      if (key.isEmpty() || key.length() > maxKeyLength) {
+        throw new InvalidInputException(
+            "Invalid Idempotency-Key, must be 1 to " + maxKeyLength + " characters");
+      }
+
+      String fingerprint = fingerprintOf(request);
+
+      AtomicBoolean first = new AtomicBoolean();
+      StoredRequest stored = store.get(key, k -> {
+        first.set(true);
+        return new StoredRequest(fingerprint, Mono.defer(call)
+            .doOnError(ex -> store.asMap().remove(k))
+            .cache());
+      });
+
+      if (!stored.getFingerprint().equals(fingerprint)) {
+        throw new InvalidInputException(
+            "Idempotency-Key: " + key + " was already used for another request");
+      }
+
+      if (first.get()) {
+        firstCalls.increment();
+      } else {
+        log.debug("Replays the result of the request with Idempotency-Key: {}", key);
+        replayedCalls.increment();
+      }
+
+      return stored.getResult();
+    });
+  }
+
+  // The serialized request is hashed, the store keeps a short fingerprint of any request size
+  private String fingerprintOf(Object request) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256").digest(mapper.writeValueAsBytes(request));
+      return Base64.getEncoder().encodeToString(hash);
+    } catch (JsonProcessingException | NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("Failed to fingerprint the request", ex);
+    }
+  }
+
+  // Rough size of an entry on the heap, the key, the fingerprint and the cached result
+  private static int estimateSize(String key, StoredRequest stored) {
+    return 128 + 2 * (key.length() + stored.getFingerprint().length());
+  }
+}
@@ -0,0 +1,141 @@
+package com.example.microservices.composite.product.services;
+
+import com.example.api.core.product.Product;
+import com.example.util.exceptions.InvalidInputException;
+import com.example.util.exceptions.NotFoundException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@Component
+@Slf4j
+public class LastKnownGoodProductStore {
+
+  @RequiredArgsConstructor
+  @Getter
+  public static class StoredProduct {
+
+    private final Product product;
+    private final Instant storedAt;
+
+    public Duration getAge() {
+      return Duration.between(storedAt, Instant.now());
+    }
+  }
+
+  private final Cache<Integer, StoredProduct> store;
+
+  // Products served stale while the circuit was open, refreshed once it closes again
+  private final Set<Integer> servedStale = ConcurrentHashMap.newKeySet();
+
+  private final ProductCompositeIntegration integration;
+  private final int refreshConcurrency;
+
+  public LastKnownGoodProductStore(
+      ProductCompositeIntegration integration,
+      CircuitBreakerRegistry circuitBreakerRegistry,
+      MeterRegistry meterRegistry,
+      @Value("${app.product-composite.last-known-good.maxWeightBytes:10485760}") long maxWeightBytes,
+      @Value("${app.product-composite.last-known-good.refreshConcurrency:4}") int refreshConcurrency
+  ) {
+    this.integration = integration;
+    this.refreshConcurrency = refreshConcurrency;
+
+    this.store = Caffeine.newBuilder()
+        .maximumWeight(maxWeightBytes)
+        .weigher((Integer productId, StoredProduct stored) -> estimateSize(stored.getProduct()))
+        .recordStats()
+        .build();
+
+    CaffeineCacheMetrics.monitor(meterRegistry, store, "last-known-good-product");
+
+    circuitBreakerRegistry.circuitBreaker("product").getEventPublisher()
+        .onStateTransition(event -> {
+          if (event.getStateTransition().getToState() == CircuitBreaker.State.CLOSED) {
+            refreshServedStale();
+          }
+        });
+  }
+
+  public void put(Product product) {
+    store.put(product.getProductId(), new StoredProduct(product, Instant.now()));
+  }
+
+  // A deleted product must not be served stale
+  public void evict(int productId) {
+    store.invalidate(productId);
+    servedStale.remove(productId);
+  }
+
+  public Optional<StoredProduct> getStale(int productId) {
+    StoredProduct stored = store.getIfPresent(productId);
+    if (stored == null) {
+      return Optional.empty();
+    }
+
+    servedStale.add(productId);
+    return Optional.of(stored);
+  }
+
+  private void refreshServedStale() {
+    List<Integer> productIds = new ArrayList<>(servedStale);
+    if (productIds.isEmpty()) {
+      return;
+    }
+
+    log.info("Circuit for product closed, refreshes {} products served stale", productIds.size());
+
+    Flux.fromIterable(productIds)
+        .flatMap(productId -> Mono.defer(() -> integration.getProduct(productId, 0, 0))
+                .doOnNext(product -> {
+                  put(product);
+                  servedStale.remove(productId);
+                })
+                .onErrorResume(ex -> {
+                  log.warn("Failed to refresh productId: {}, {}", productId, ex.toString());
+                  forgetOnClientError(productId, ex);
+                  return Mono.empty();
+                }),
+            refreshConcurrency)
+        .subscribe();
+  }
+
+  // Refreshing again won't help after a client error, a product no longer found is evicted
+  private void forgetOnClientError(int productId, Throwable ex) {
+    if (ex instanceof NotFoundException) {
+      evict(productId);
+    } else if (ex instanceof InvalidInputException
+        || (ex instanceof WebClientResponseException
+            && ((WebClientResponseException) ex).getStatusCode().is4xxClientError())) {
+      servedStale.remove(productId);
+    }
+  }
+
+  // Rough size of a product on the heap, object headers and fields plus the chars of its strings
+  private static int estimateSize(Product product) {
+    int chars = length(product.getName()) + length(product.getServiceAddress());
+    return 64 + 2 * chars;
+  }
+
+  private static int length(String value) {
+    return value == null ? 0 : value.length();
+  }
+}
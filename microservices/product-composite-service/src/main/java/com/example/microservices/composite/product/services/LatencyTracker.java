@@ -0,0 +1,51 @@
+package com.example.microservices.composite.product.services;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+
+// Keeps the response times of the latest calls to a backend in a ring buffer.
+// Percentiles are read from a sorted snapshot that is refreshed every tenth of the window.
+public class LatencyTracker {
+
+  private final long[] samples;
+  private final int minSamples;
+  private final int snapshotInterval;
+
+  private int next = 0;
+  private int count = 0;
+  private int samplesSinceSnapshot = 0;
+  private long[] snapshot = null;
+
+  public LatencyTracker(int windowSize, int minSamples) {
+    this.samples = new long[windowSize];
+    this.minSamples = minSamples;
+    this.snapshotInterval = Math.max(1, windowSize / 10);
+  }
+
+  public synchronized void record(Duration latency) {
+    samples[next] = latency.toNanos();
+    next = (next + 1) % samples.length;
+    if (count < samples.length) {
+      count++;
+    }
+    samplesSinceSnapshot++;
+  }
+
+  // Empty until enough samples have been recorded to give a meaningful value
+  public synchronized Optional<Duration> percentile(double percentile) {
+    if (count < minSamples) {
+      return Optional.empty();
+    }
+
+    if (snapshot == null || samplesSinceSnapshot >= snapshotInterval) {
+      snapshot = Arrays.copyOf(samples, count);
+      Arrays.sort(snapshot);
+      samplesSinceSnapshot = 0;
+    }
+
+    int index = (int) Math.ceil(percentile * snapshot.length) - 1;
+    index = Math.max(0, Math.min(snapshot.length - 1, index));
+    return Optional.of(Duration.ofNanos(snapshot[index]));
+  }
+}
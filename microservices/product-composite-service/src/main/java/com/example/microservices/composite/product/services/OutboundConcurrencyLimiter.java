@@ -0,0 +1,156 @@
+package com.example.microservices.composite.product.services;
+
+import com.example.util.exceptions.InvalidInputException;
+import com.example.util.exceptions.NotFoundException;
+import com.example.util.exceptions.ServiceUnavailableException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.SignalType;
+
+// Caps the concurrent calls to one backend with an adaptive limit learned from its response
+// times. Calls above the limit wait in a short bounded queue for a permit and are shed with a
+// ServiceUnavailableException when the queue is full or the wait takes too long.
+public class OutboundConcurrencyLimiter {
+
+  @RequiredArgsConstructor
+  private static class Waiter {
+
+    private final MonoSink<Void> sink;
+
+    // Set by whoever comes first, the permit being granted or the wait being cancelled
+    private final AtomicBoolean done = new AtomicBoolean();
+  }
+
+  private final String backend;
+  private final AdaptiveConcurrencyLimit limit;
+  private final int maxQueued;
+  private final Duration maxQueueWait;
+
+  private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queued = new AtomicInteger();
+
+  public OutboundConcurrencyLimiter(
+      String backend,
+      MeterRegistry meterRegistry,
+      AdaptiveConcurrencyLimit limit,
+      int maxQueued,
+      Duration maxQueueWait
+  ) {
+    this.backend = backend;
+    this.limit = limit;
+    this.maxQueued = maxQueued;
+    this.maxQueueWait = maxQueueWait;
+
+    Gauge.builder("composite.concurrency.queued", queued, AtomicInteger::get)
+        .description("Calls waiting for a permit of the concurrency limit")
+        .tag("limiter", backend)
+        .register(meterRegistry);
+  }
+
+  public <T> Mono<T> apply(Mono<T> call) {
+    return acquire().then(Mono.defer(() -> {
+      long start = System.nanoTime();
+      AtomicReference<Throwable> error = new AtomicReference<>();
+      return call
+          .doOnError(error::set)
+          .doFinally(signal -> release(signal, start, error.get()));
+    }));
+  }
+
+  // The permit is held until the whole Flux has been received
+  public <T> Flux<T> apply(Flux<T> call) {
+    return acquire().thenMany(Flux.defer(() -> {
+      long start = System.nanoTime();
+      AtomicReference<Throwable> error = new AtomicReference<>();
+      return call
+          .doOnError(error::set)
+          .doFinally(signal -> release(signal, start, error.get()));
+    }));
+  }
+
+  // Only calls that got a permit are timed, the wait for it is not part of the backend latency
+  private void release(SignalType signal, long start, Throwable error) {
+    if (signal == SignalType.CANCEL) {
+      limit.releaseIgnored();
+    } else if (error != null && !isClientError(error)) {
+      limit.releaseDropped();
+    } else {
+      limit.release(Duration.ofNanos(System.nanoTime() - start));
+    }
+    drain();
+  }
+
+  private Mono<Void> acquire() {
+    return Mono.<Void>create(sink -> {
+          Waiter waiter = new Waiter(sink);
+          sink.onCancel(() -> cancel(waiter));
+
+          if (limit.tryAcquire()) {
+            waiter.done.set(true);
+            sink.success();
+            return;
+          }
+
+          if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            waiter.done.set(true);
+            sink.error(shed("the queue is full"));
+            return;
+          }
+
+          waiters.add(waiter);
+
+          // A permit may have been released before the waiter was queued
+          drain();
+        })
+        .timeout(maxQueueWait, Mono.error(() ->
+            shed("no permit within " + maxQueueWait.toMillis() + " ms")))
+        .doOnError(ServiceUnavailableException.class, ex -> limit.recordRejected());
+  }
+
+  // The sink ignores a permit granted after it was cancelled, so it's given back here
+  private void cancel(Waiter waiter) {
+    if (waiter.done.compareAndSet(false, true)) {
+      waiters.remove(waiter);
+      queued.decrementAndGet();
+    } else {
+      limit.releaseIgnored();
+      drain();
+    }
+  }
+
+  // Hands released permits to the waiters in the order they arrived
+  private void drain() {
+    while (!waiters.isEmpty() && limit.tryAcquire()) {
+      Waiter waiter = waiters.poll();
+      if (waiter == null || !waiter.done.compareAndSet(false, true)) {
+        limit.releaseIgnored();
+        continue;
+      }
+
+      queued.decrementAndGet();
+      waiter.sink.success();
+    }
+  }
+
+  private ServiceUnavailableException shed(String reason) {
+    return new ServiceUnavailableException(
+        "Call to " + backend + " shed by its concurrency limit of " + limit.getLimit() + ", "
+            + reason);
+  }
+
+  // The backend answered, even if with an error, which says as much about its latency as a success
+  private static boolean isClientError(Throwable error) {
+    return error instanceof NotFoundException || error instanceof InvalidInputException;
+  }
+}
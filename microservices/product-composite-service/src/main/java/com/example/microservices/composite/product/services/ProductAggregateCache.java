@@ -0,0 +1,66 @@
+package com.example.microservices.composite.product.services;
+
+import com.example.api.composite.product.ProductAggregate;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+@Component
+@Slf4j
+public class ProductAggregateCache {
+
+  // Products share a fixed number of generations to bound the memory, sharing one only means an
+  // aggregate of the other product is not cached when it was fetched during the invalidation
+  private static final int GENERATIONS = 4096;
+
+  private final Cache<Integer, ProductAggregate> cache;
+
+  // Bumped on invalidation of a product, used to drop its aggregates that were fetched before
+  private final AtomicLongArray generations = new AtomicLongArray(GENERATIONS);
+
+  public ProductAggregateCache(
+      MeterRegistry meterRegistry,
+      @Value("${app.product-composite.cache.maximumSize:10000}") long maximumSize,
+      @Value("${app.product-composite.cache.expireAfterWriteSec:60}") long expireAfterWriteSec
+  ) {
+    this.cache = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(Duration.ofSeconds(expireAfterWriteSec))
+        .recordStats()
+        .build();
+
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "product-composite");
+  }
+
+  public ProductAggregate get(int productId) {
+    return cache.getIfPresent(productId);
+  }
+
+  public long generation(int productId) {
+    return generations.get(generationIndex(productId));
+  }
+
+  public void put(int productId, ProductAggregate aggregate, long fetchedAtGeneration) {
+    if (fetchedAtGeneration != generation(productId)) {
+      log.debug("Skip caching productId: {}, invalidated while it was fetched", productId);
+      return;
+    }
+
+    cache.put(productId, aggregate);
+  }
+
+  public void invalidate(int productId) {
+    generations.incrementAndGet(generationIndex(productId));
+    cache.invalidate(productId);
+  }
+
+  private static int generationIndex(int productId) {
+    return Math.floorMod(productId, GENERATIONS);
+  }
+}
@@ -2,7 +2,7 @@ package com.example.microservices.composite.product.services;
 
 import static com.example.api.event.Event.Type.CREATE;
 import static com.example.api.event.Event.Type.DELETE;
-import static reactor.core.publisher.Flux.empty;
+import static java.util.stream.Collectors.joining;
 
 import com.example.api.core.product.Product;
 import com.example.api.core.product.ProductService;
@@ -13,19 +13,23 @@ import com.example.api.core.review.ReviewService;
 import com.example.api.event.Event;
 import com.example.util.exceptions.InvalidInputException;
 import com.example.util.exceptions.NotFoundException;
+import com.example.util.http.Deadline;
 import com.example.util.http.HttpErrorInfo;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
-import io.github.resilience4j.retry.annotation.Retry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.io.IOException;
 import java.net.URI;
 import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.Output;
 import org.springframework.messaging.MessageChannel;
-import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClient.Builder;
@@ -33,6 +37,9 @@ import org.springframework.web.reactive.function.client.WebClientResponseExcepti
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.context.ContextView;
+import reactor.util.retry.Retry;
 
 @EnableBinding(ProductCompositeIntegration.MessageSources.class)
 @Component
@@ -64,31 +71,101 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
   private final WebClient.Builder webClientBuilder;
   private final ObjectMapper mapper;
   private final MessageSources messageSources;
-  private final int productServiceTimeoutSec;
+  private final EventPublisher eventPublisher;
+  private final EventOutbox outbox;
+  private final BackendTimeouts timeouts;
+  private final BackendConcurrencyLimits limits;
+  private final StageTimers stageTimers;
+
+  // Hedges and retries are budgeted as a ratio of the successful calls within this window
+  private static final Duration BUDGET_WINDOW = Duration.ofSeconds(10);
+
+  private final boolean hedgingEnabled;
+  private final double hedgingPercentile;
+  private final Duration hedgingMinDelay;
+  private final Duration hedgingInitialDelay;
+  private final RequestBudget hedgingBudget;
+  private final Counter hedgesSent;
+  private final Counter hedgesWon;
+  private final Counter hedgesDenied;
+
+  private final int retryMaxAttempts;
+  private final Duration retryWait;
+  private final RequestBudget retryBudget;
+  private final Counter retriesSent;
+  private final Counter retriesDenied;
 
   public ProductCompositeIntegration(
       Builder webClientBuilder,
       ObjectMapper mapper,
       MessageSources messageSources,
-      @Value("${app.product-service.timeoutSec}") int productServiceTimeoutSec
+      EventPublisher eventPublisher,
+      EventOutbox outbox,
+      MeterRegistry meterRegistry,
+      BackendTimeouts timeouts,
+      BackendConcurrencyLimits limits,
+      StageTimers stageTimers,
+      @Value("${app.product-service.hedging.enabled:false}") boolean hedgingEnabled,
+      @Value("${app.product-service.hedging.percentile:0.95}") double hedgingPercentile,
+      @Value("${app.product-service.hedging.minDelayMs:50}") long hedgingMinDelayMs,
+      @Value("${app.product-service.hedging.initialDelayMs:500}") long hedgingInitialDelayMs,
+      @Value("${app.product-service.hedging.budgetPercent:10}") double hedgingBudgetPercent,
+      @Value("${app.product-service.retry.maxAttempts:3}") int retryMaxAttempts,
+      @Value("${app.product-service.retry.waitMs:1000}") long retryWaitMs,
+      @Value("${app.product-service.retry.budgetPercent:10}") double retryBudgetPercent
   ) {
     this.webClientBuilder = webClientBuilder;
     this.mapper = mapper;
     this.messageSources = messageSources;
-    this.productServiceTimeoutSec = productServiceTimeoutSec;
+    this.eventPublisher = eventPublisher;
+    this.outbox = outbox;
+    this.timeouts = timeouts;
+    this.limits = limits;
+    this.stageTimers = stageTimers;
+
+    this.hedgingEnabled = hedgingEnabled;
+    this.hedgingPercentile = hedgingPercentile;
+    this.hedgingMinDelay = Duration.ofMillis(hedgingMinDelayMs);
+    this.hedgingInitialDelay = Duration.ofMillis(hedgingInitialDelayMs);
+    this.hedgingBudget = new RequestBudget(hedgingBudgetPercent / 100, 10, BUDGET_WINDOW);
+    this.hedgesSent = hedgeCounter(meterRegistry, "sent");
+    this.hedgesWon = hedgeCounter(meterRegistry, "won");
+    this.hedgesDenied = hedgeCounter(meterRegistry, "denied");
+
+    this.retryMaxAttempts = retryMaxAttempts;
+    this.retryWait = Duration.ofMillis(retryWaitMs);
+    this.retryBudget = new RequestBudget(retryBudgetPercent / 100, 10, BUDGET_WINDOW);
+    this.retriesSent = retryCounter(meterRegistry, "sent");
+    this.retriesDenied = retryCounter(meterRegistry, "denied");
+    Gauge.builder("composite.retry.budget", retryBudget, RequestBudget::getTokens)
+        .description("Retries currently allowed by the retry budget")
+        .tag("backend", "product")
+        .register(meterRegistry);
+  }
+
+  private static Counter hedgeCounter(MeterRegistry meterRegistry, String result) {
+    return Counter.builder("composite.hedges")
+        .description("Hedged calls to a backend, sent, won over the first call or denied by the budget")
+        .tags("backend", "product", "result", result)
+        .register(meterRegistry);
+  }
+
+  private static Counter retryCounter(MeterRegistry meterRegistry, String result) {
+    return Counter.builder("composite.retries")
+        .description("Retries of failed calls to a backend, sent or denied by the exhausted budget")
+        .tags("backend", "product", "result", result)
+        .register(meterRegistry);
   }
 
   private WebClient webClient;
 
   @Override
-  public Product createProduct(Product body) {
-    messageSources.outputProducts()
-        .send(MessageBuilder.withPayload(new Event(CREATE, body.getProductId(), body)).build());
-
-    return body;
+  public Mono<Product> createProduct(Product body) {
+    return publish(MessageSources.OUTPUT_PRODUCTS, messageSources.outputProducts(),
+            new Event(CREATE, body.getProductId(), body))
+        .thenReturn(body);
   }
 
-  @Retry(name = "product")
   @CircuitBreaker(name = "product")
   @Override
   public Mono<Product> getProduct(int productId, int delay, int faultPercent) {
@@ -98,27 +175,119 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 
     log.debug("Will call the getProduct API on URL: {}", url);
 
-    return getWebClient().get()
-        .uri(url)
-        .retrieve()
-        .bodyToMono(Product.class)
-        .log()
-        .onErrorMap(WebClientResponseException.class, this::handleException)
-        .timeout(Duration.ofSeconds(productServiceTimeoutSec));
+    // Each request, also a hedged one, needs a permit of the product concurrency limit. The timeout
+    // applies within the permit, so a timed out request shrinks the limit like any other drop.
+    // Hedges and retries subscribe again, each with the deadline left at the time it is sent.
+    Mono<Product> request = limits.getProduct().apply(timeouts.getProduct().apply(
+        Mono.deferContextual(context -> getWebClient().get()
+            .uri(url)
+            .header(Deadline.HEADER, deadlineOf(context, timeouts.getProduct().current()))
+            .retrieve()
+            .bodyToMono(Product.class)
+            .onErrorMap(WebClientResponseException.class, this::handleException))));
+
+    Mono<Product> call = hedgingEnabled ? hedged(request) : request;
+
+    return withRetryBudget(call);
   }
 
+  // Retries server errors, but only as long as the budget, earned by recent successful calls,
+  // allows. During a brownout the budget runs out, so retries can't multiply the load on the
+  // service. The budget is only asked once a retry is actually possible, so the failure of the
+  // last attempt neither withdraws a token nor counts as a sent or denied retry.
+  private Mono<Product> withRetryBudget(Mono<Product> call) {
+    return call
+        .doOnSuccess(product -> retryBudget.deposit())
+        .retryWhen(Retry.from(signals -> signals.concatMap(signal -> {
+          Throwable ex = signal.failure();
+          if (!(ex instanceof WebClientResponseException.InternalServerError)
+              || signal.totalRetries() >= retryMaxAttempts - 1) {
+            return Mono.error(ex);
+          }
+
+          if (!retryBudget.tryWithdraw()) {
+            log.debug("Retry budget exhausted, will not retry the getProduct call");
+            retriesDenied.increment();
+            return Mono.error(ex);
+          }
+
+          retriesSent.increment();
+          return Mono.delay(retryWait);
+        })));
+  }
+
+  // Sends a second request, normally to another instance, if the first one hasn't answered
+  // within the configured latency percentile. The first value wins, the other call is cancelled.
+  // A failed call doesn't end the hedged call while the other one may still succeed, the error of
+  // the first call is returned if both fail. No hedge is sent once the first call has failed.
+  private Mono<Product> hedged(Mono<Product> request) {
+    return Mono.defer(() -> {
+      hedgingBudget.deposit();
+
+      Duration hedgeDelay = timeouts.getProduct().latencyPercentile(hedgingPercentile)
+          .map(percentile -> percentile.compareTo(hedgingMinDelay) < 0 ? hedgingMinDelay : percentile)
+          .orElse(hedgingInitialDelay);
+
+      AtomicReference<Throwable> firstError = new AtomicReference<>();
+      Sinks.Empty<Long> firstFailed = Sinks.empty();
+      Mono<Product> first = request.doOnError(ex -> {
+        firstError.set(ex);
+        firstFailed.tryEmitEmpty();
+      });
+
+      Mono<Product> hedge = Mono.firstWithSignal(Mono.delay(hedgeDelay), firstFailed.asMono())
+          .flatMap(tick -> {
+            if (!hedgingBudget.tryWithdraw()) {
+              log.debug("Hedging budget exhausted, will wait for the first getProduct call");
+              hedgesDenied.increment();
+              return Mono.empty();
+            }
+
+            log.debug("No getProduct response after {} ms, sends a hedged request",
+                hedgeDelay.toMillis());
+            hedgesSent.increment();
+            return request.doOnNext(product -> hedgesWon.increment());
+          });
+
+      return Mono.firstWithValue(first, hedge)
+          .onErrorMap(ex -> firstError.get() != null ? firstError.get() : ex);
+    });
+  }
+
+  @CircuitBreaker(name = "product")
   @Override
-  public void deleteProduct(int productId) {
-    messageSources.outputProducts()
-        .send(MessageBuilder.withPayload(new Event(DELETE, productId, null)).build());
+  public Flux<Product> getProducts(List<Integer> productIds) {
+    String url = productServiceUrl + "/product?productIds=" + toQueryValue(productIds);
+
+    log.debug("Will call the getProducts API on URL: {}", url);
+
+    Flux<Product> products = Flux.deferContextual(context -> getWebClient().get()
+            .uri(url)
+            .header(Deadline.HEADER, deadlineOf(context, timeouts.getProduct().getCeiling()))
+            .retrieve()
+            .bodyToFlux(Product.class))
+        .onErrorMap(WebClientResponseException.class, this::handleException);
+
+    return limits.getProduct().apply(timeouts.getProduct().applyCeiling(products));
   }
 
   @Override
-  public Recommendation createRecommendation(Recommendation body) {
-    messageSources.outputRecommendations()
-        .send(MessageBuilder.withPayload(new Event(CREATE, body.getProductId(), body)).build());
+  public Mono<Void> deleteProduct(int productId) {
+    return publish(MessageSources.OUTPUT_PRODUCTS, messageSources.outputProducts(),
+        new Event(DELETE, productId, null));
+  }
 
-    return body;
+  // All recommendations of a product are sent as one bulk event, keyed on the productId
+  @Override
+  public Flux<Recommendation> createRecommendations(List<Recommendation> body) {
+    if (body.isEmpty()) {
+      return Flux.empty();
+    }
+
+    int productId = body.get(0).getProductId();
+    return publish(MessageSources.OUTPUT_RECOMMENDATIONS,
+            messageSources.outputRecommendations(), new Event(CREATE, productId, body))
+        .thenMany(Flux.fromIterable(body));
   }
 
   @Override
@@ -127,27 +296,52 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 
     log.debug("Will call the getRecommendations API on URL: {}", url);
 
-    // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
-    return getWebClient().get()
+    Flux<Recommendation> recommendations = Flux.deferContextual(context -> getWebClient().get()
+        .uri(url)
+        .header(Deadline.HEADER, deadlineOf(context, timeouts.getRecommendation().current()))
+        .retrieve()
+        .bodyToFlux(Recommendation.class));
+
+    // Errors are not turned into empty results, the composite service leaves the section out of
+    // the response and flags it as missing, so a failed call is never cached as a complete one
+    return stageTimers.time("recommendations", limits.getRecommendation().apply(
+        timeouts.getRecommendation().apply(recommendations)));
+  }
+
+  @Override
+  public Flux<Recommendation> getRecommendationsForProducts(List<Integer> productIds) {
+    String url =
+        recommendationServiceUrl + "/recommendation?productIds=" + toQueryValue(productIds);
+
+    log.debug("Will call the getRecommendationsForProducts API on URL: {}", url);
+
+    // Errors are propagated, the composite service flags the section as missing
+    Flux<Recommendation> recommendations = Flux.deferContextual(context -> getWebClient().get()
         .uri(url)
+        .header(Deadline.HEADER, deadlineOf(context, timeouts.getRecommendation().getCeiling()))
         .retrieve()
-        .bodyToFlux(Recommendation.class)
-        .log()
-        .onErrorResume(error -> empty());
+        .bodyToFlux(Recommendation.class));
+
+    return limits.getRecommendation().apply(timeouts.getRecommendation().applyCeiling(recommendations));
   }
 
   @Override
-  public void deleteRecommendations(int productId) {
-    messageSources.outputRecommendations()
-        .send(MessageBuilder.withPayload(new Event(DELETE, productId, null)).build());
+  public Mono<Void> deleteRecommendations(int productId) {
+    return publish(MessageSources.OUTPUT_RECOMMENDATIONS,
+        messageSources.outputRecommendations(), new Event(DELETE, productId, null));
   }
 
+  // All reviews of a product are sent as one bulk event, keyed on the productId
   @Override
-  public Review createReview(Review body) {
-    messageSources.outputReviews()
-        .send(MessageBuilder.withPayload(new Event(CREATE, body.getProductId(), body)).build());
+  public Flux<Review> createReviews(List<Review> body) {
+    if (body.isEmpty()) {
+      return Flux.empty();
+    }
 
-    return body;
+    int productId = body.get(0).getProductId();
+    return publish(MessageSources.OUTPUT_REVIEWS, messageSources.outputReviews(),
+            new Event(CREATE, productId, body))
+        .thenMany(Flux.fromIterable(body));
   }
 
   @Override
@@ -156,19 +350,58 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 
     log.debug("Will call the getReviews API on URL: {}", url);
 
-    // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
-    return getWebClient().get()
+    Flux<Review> reviews = Flux.deferContextual(context -> getWebClient().get()
         .uri(url)
+        .header(Deadline.HEADER, deadlineOf(context, timeouts.getReview().current()))
         .retrieve()
-        .bodyToFlux(Review.class)
-        .log()
-        .onErrorResume(error -> empty());
+        .bodyToFlux(Review.class));
+
+    // Errors are not turned into empty results, the composite service leaves the section out of
+    // the response and flags it as missing, so a failed call is never cached as a complete one
+    return stageTimers.time("reviews", limits.getReview().apply(
+        timeouts.getReview().apply(reviews)));
   }
 
   @Override
-  public void deleteReviews(int productId) {
-    messageSources.outputReviews()
-        .send(MessageBuilder.withPayload(new Event(DELETE, productId, null)).build());
+  public Flux<Review> getReviewsForProducts(List<Integer> productIds) {
+    String url = reviewServiceUrl + "/review?productIds=" + toQueryValue(productIds);
+
+    log.debug("Will call the getReviewsForProducts API on URL: {}", url);
+
+    // Errors are propagated, the composite service flags the section as missing
+    Flux<Review> reviews = Flux.deferContextual(context -> getWebClient().get()
+        .uri(url)
+        .header(Deadline.HEADER, deadlineOf(context, timeouts.getReview().getCeiling()))
+        .retrieve()
+        .bodyToFlux(Review.class));
+
+    return limits.getReview().apply(timeouts.getReview().applyCeiling(reviews));
+  }
+
+  @Override
+  public Mono<Void> deleteReviews(int productId) {
+    return publish(MessageSources.OUTPUT_REVIEWS, messageSources.outputReviews(),
+        new Event(DELETE, productId, null));
+  }
+
+  // With the outbox enabled the request only waits for the event to be stored, not for the broker
+  private Mono<Void> publish(String binding, MessageChannel channel, Event event) {
+    return outbox.isEnabled() ?
+        outbox.append(binding, event) : eventPublisher.publish(binding, channel, event);
+  }
+
+  // The core services stop working on a call once the composite has given up on it, after the
+  // timeout of the call or, if the request to the composite has a deadline, at that deadline
+  private static String deadlineOf(ContextView context, Duration timeout) {
+    Duration remaining = Deadline.from(context)
+        .map(Deadline::remaining)
+        .filter(left -> left.compareTo(timeout) < 0)
+        .orElse(timeout);
+    return String.valueOf(remaining.toMillis());
+  }
+
+  private String toQueryValue(List<Integer> productIds) {
+    return productIds.stream().map(String::valueOf).collect(joining(","));
   }
 
   private WebClient getWebClient() {
@@ -1,6 +1,17 @@
 package com.example.microservices.composite.product.services;
 
+import static com.example.api.composite.product.ProductAggregatePart.Type.PRODUCT;
+import static com.example.api.composite.product.ProductAggregatePart.Type.RECOMMENDATION;
+import static com.example.api.composite.product.ProductAggregatePart.Type.REVIEW;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+
 import com.example.api.composite.product.ProductAggregate;
+import com.example.api.composite.product.ProductAggregatePart;
 import com.example.api.composite.product.ProductCompositeService;
 import com.example.api.composite.product.RecommendationSummary;
 import com.example.api.composite.product.ReviewSummary;
@@ -8,157 +19,441 @@ import com.example.api.composite.product.ServiceAddress;
 import com.example.api.core.product.Product;
 import com.example.api.core.recommendation.Recommendation;
 import com.example.api.core.review.Review;
-import com.example.util.exceptions.NotFoundException;
+import com.example.microservices.composite.product.services.LastKnownGoodProductStore.StoredProduct;
+import com.example.util.exceptions.InvalidInputException;
+import com.example.util.exceptions.ServiceUnavailableException;
 import com.example.util.http.ServiceUtil;
 import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.security.core.context.ReactiveSecurityContextHolder;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextImpl;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @RestController
-@RequiredArgsConstructor
 @Slf4j
 public class ProductCompositeServiceImpl implements ProductCompositeService {
 
+  @RequiredArgsConstructor
+  @Getter
+  private static class LoadedAggregate {
+
+    private final ProductAggregate aggregate;
+
+    // Age of the product if it was served from the last known good store, otherwise null
+    private final Duration staleAge;
+  }
+
+  private static final String RECOMMENDATIONS = "recommendations";
+  private static final String REVIEWS = "reviews";
+  private static final String SERVICE_ADDRESS = "serviceAddress";
+  private static final Set<String> ALL_FIELDS = Set.of(RECOMMENDATIONS, REVIEWS, SERVICE_ADDRESS);
+
   private final SecurityContext nullSC = new SecurityContextImpl();
 
   private final ProductCompositeIntegration integration;
+  private final ProductAggregateCache cache;
+  private final LastKnownGoodProductStore lastKnownGood;
+  private final RequestCoalescer coalescer;
+  private final IdempotencyStore idempotencyStore;
+  private final StageTimers stageTimers;
   private final ServiceUtil serviceUtil;
+  private final int maxBatchSize;
+  private final Duration softDeadline;
+
+  public ProductCompositeServiceImpl(
+      ProductCompositeIntegration integration,
+      ProductAggregateCache cache,
+      LastKnownGoodProductStore lastKnownGood,
+      RequestCoalescer coalescer,
+      IdempotencyStore idempotencyStore,
+      StageTimers stageTimers,
+      ServiceUtil serviceUtil,
+      @Value("${app.product-composite.batch.maxSize:100}") int maxBatchSize,
+      @Value("${app.product-composite.softDeadlineMs:0}") long softDeadlineMs
+  ) {
+    this.integration = integration;
+    this.cache = cache;
+    this.lastKnownGood = lastKnownGood;
+    this.coalescer = coalescer;
+    this.idempotencyStore = idempotencyStore;
+    this.stageTimers = stageTimers;
+    this.serviceUtil = serviceUtil;
+    this.maxBatchSize = maxBatchSize;
+    this.softDeadline = Duration.ofMillis(softDeadlineMs);
+  }
 
   @Override
-  public Mono<Void> createCompositeProduct(ProductAggregate body) {
+  public Mono<Void> createCompositeProduct(ProductAggregate body, String idempotencyKey) {
     return ReactiveSecurityContextHolder.getContext()
-        .doOnSuccess(sc -> internalCreateCompositeProduct(sc, body))
-        .then();
-  }
-
-  private void internalCreateCompositeProduct(SecurityContext sc, ProductAggregate body) {
-    try {
-      logAuthorizationInfo(sc);
-
-      log.debug(
-          "createCompositeProduct: creates a new composite entity for productId: {}",
-          body.getProductId()
-      );
-
-      Product product = new Product(body.getProductId(), body.getName(), body.getWeight(), null);
-      integration.createProduct(product);
-
-      if (body.getRecommendations() != null) {
-        body.getRecommendations().forEach(r -> {
-          Recommendation recommendation = new Recommendation(
-              body.getProductId(),
-              r.getRecommendationId(),
-              r.getAuthor(),
-              r.getRate(),
-              r.getContent(),
-              null
-          );
-          integration.createRecommendation(recommendation);
+        .doOnSuccess(sc -> logAuthorizationInfo(sc))
+        .then(Mono.defer(() -> idempotencyKey == null ?
+            internalCreateCompositeProduct(body) :
+            // Retries with the same key get the first result, nothing is published again
+            idempotencyStore.execute(idempotencyKey, body,
+                () -> internalCreateCompositeProduct(body))))
+        .doOnError(ex -> log.warn("createCompositeProduct failed: {}", ex.toString()));
+  }
+
+  private Mono<Void> internalCreateCompositeProduct(ProductAggregate body) {
+    log.debug(
+        "createCompositeProduct: creates a new composite entity for productId: {}",
+        body.getProductId()
+    );
+
+    Product product = new Product(body.getProductId(), body.getName(), body.getWeight(), null);
+
+    List<Recommendation> recommendations = body.getRecommendations() == null ? emptyList() :
+        body.getRecommendations().stream()
+            .map(r -> new Recommendation(
+                body.getProductId(),
+                r.getRecommendationId(),
+                r.getAuthor(),
+                r.getRate(),
+                r.getContent(),
+                null
+            ))
+            .collect(toList());
+
+    List<Review> reviews = body.getReviews() == null ? emptyList() :
+        body.getReviews().stream()
+            .map(r -> new Review(
+                body.getProductId(),
+                r.getReviewId(),
+                r.getAuthor(),
+                r.getSubject(),
+                r.getContent(),
+                null
+            ))
+            .collect(toList());
+
+    // The events are published at once, completes when all of them are sent and confirmed
+    return Mono.when(
+            integration.createProduct(product),
+            integration.createRecommendations(recommendations),
+            integration.createReviews(reviews)
+        )
+        .doOnSuccess(v -> log.debug(
+            "createCompositeProduct: composite entites created for productId: {}",
+            body.getProductId()
+        ));
+  }
+
+  @Override
+  public Mono<ProductAggregate> getCompositeProduct(
+      int productId,
+      int delay,
+      int faultPercent,
+      List<String> fields
+  ) {
+    Set<String> fieldset = toFieldset(fields);
+
+    return stageTimers.time("security-context",
+            ReactiveSecurityContextHolder.getContext().defaultIfEmpty(nullSC))
+        .doOnNext(sc -> logAuthorizationInfo(sc))
+        .then(loadCompositeProduct(productId, delay, faultPercent, fieldset))
+        .flatMap(this::withAgeHeader)
+        .map(aggregate -> project(aggregate, fieldset))
+        .doOnError(ex -> log.warn("getCompositeProduct failed: {}", ex.toString()));
+  }
+
+  // Served stale products are flagged per response, coalesced callers get the header as well
+  private Mono<ProductAggregate> withAgeHeader(LoadedAggregate loaded) {
+    if (loaded.getStaleAge() == null) {
+      return Mono.just(loaded.getAggregate());
+    }
+
+    return Mono.deferContextual(ctx -> {
+      ctx.<ServerWebExchange>getOrEmpty(ServerWebExchange.class)
+          .ifPresent(exchange -> exchange.getResponse().getHeaders()
+              .set(HttpHeaders.AGE, String.valueOf(loaded.getStaleAge().getSeconds())));
+      return Mono.just(loaded.getAggregate());
+    });
+  }
+
+  // Null or empty means all sections, unknown field names are rejected
+  private Set<String> toFieldset(List<String> fields) {
+    if (fields == null || fields.isEmpty()) {
+      return ALL_FIELDS;
+    }
+
+    Set<String> fieldset = new TreeSet<>(fields);
+    fieldset.stream()
+        .filter(field -> !ALL_FIELDS.contains(field))
+        .findFirst()
+        .ifPresent(field -> {
+          throw new InvalidInputException(
+              "Invalid field: " + field + ", valid are " + new TreeSet<>(ALL_FIELDS));
         });
+    return fieldset;
+  }
+
+  private Mono<LoadedAggregate> loadCompositeProduct(
+      int productId,
+      int delay,
+      int faultPercent,
+      Set<String> fieldset
+  ) {
+    // Requests with simulated delays or faults are used for resilience tests, always call the backends
+    if (delay > 0 || faultPercent > 0) {
+      return Mono.defer(() -> fetchCompositeProduct(productId, delay, faultPercent, fieldset));
+    }
+
+    boolean complete = fieldset.containsAll(ALL_FIELDS);
+
+    return Mono.defer(() -> {
+      // Cached aggregates are complete and can serve any fieldset
+      ProductAggregate cached = cache.get(productId);
+      if (cached != null) {
+        return Mono.just(new LoadedAggregate(cached, null));
       }
 
-      if (body.getReviews() != null) {
-        body.getReviews().forEach(r -> {
-          Review review = new Review(
-              body.getProductId(),
-              r.getReviewId(),
-              r.getAuthor(),
-              r.getSubject(),
-              r.getContent(),
-              null
-          );
-          integration.createReview(review);
+      // Concurrent requests for the same product and fieldset share one fan-out
+      Object key = complete ? productId : productId + ":" + String.join(",", fieldset);
+      return coalescer.coalesce(key, () -> {
+        long generation = cache.generation(productId);
+        return fetchCompositeProduct(productId, 0, 0, fieldset)
+            .doOnNext(loaded -> {
+              // Never cache an aggregate built on a stale product, with missing or skipped sections
+              if (complete && loaded.getStaleAge() == null
+                  && loaded.getAggregate().getMissingSections() == null) {
+                cache.put(productId, loaded.getAggregate(), generation);
+              }
+            });
+      });
+    });
+  }
+
+  private Mono<LoadedAggregate> fetchCompositeProduct(
+      int productId,
+      int delay,
+      int faultPercent,
+      Set<String> fieldset
+  ) {
+    AtomicReference<Duration> staleAge = new AtomicReference<>();
+
+    Mono<Product> product = integration.getProduct(productId, delay, faultPercent)
+        .doOnNext(lastKnownGood::put)
+        .onErrorResume(CallNotPermittedException.class, ex -> getProductFallbackValue(productId)
+            .map(stored -> {
+              staleAge.set(stored.getAge());
+              return stored.getProduct();
+            }));
+
+    return Mono.zip(
+        values -> stageTimers.time("aggregate", () -> createProductAggregate(
+            (Product) values[0],
+            ((Optional<List<Recommendation>>) values[1]).orElse(null),
+            ((Optional<List<Review>>) values[2]).orElse(null),
+            serviceUtil.getServiceAddress()
+        )),
+        stageTimers.time("product", product,
+            p -> staleAge.get() == null ? StageTimers.OK : StageTimers.FALLBACK),
+        // Sections not in the fieldset are not fetched at all, and projected away afterwards
+        fieldset.contains(RECOMMENDATIONS) ?
+            withSoftDeadline(optionalSection(RECOMMENDATIONS,
+                integration.getRecommendations(productId).collectList())) :
+            Mono.just(Optional.of(emptyList())),
+        fieldset.contains(REVIEWS) ?
+            withSoftDeadline(optionalSection(REVIEWS,
+                integration.getReviews(productId).collectList())) :
+            Mono.just(Optional.of(emptyList()))
+    ).map(aggregate -> new LoadedAggregate(aggregate, staleAge.get()));
+  }
+
+  // Optional sections that fail are left out of the response and flagged as missing
+  private <T> Mono<Optional<T>> optionalSection(String section, Mono<T> part) {
+    return part.map(Optional::of)
+        .onErrorResume(ex -> {
+          log.warn("Leaves out the {} of the response: {}", section, ex.toString());
+          return Mono.just(Optional.empty());
         });
-      }
+  }
 
-      log.debug(
-          "createCompositeProduct: composite entites created for productId: {}",
-          body.getProductId()
-      );
-    } catch (RuntimeException re) {
-      log.warn("createCompositeProduct failed", re);
-      throw re;
+  // Optional sections that are not complete when the soft deadline passes are left out as well,
+  // making the response bounded by the product call instead of the slowest optional backend
+  private <T> Mono<Optional<T>> withSoftDeadline(Mono<Optional<T>> section) {
+    if (softDeadline.isZero()) {
+      return section;
     }
+
+    return section.timeout(softDeadline, Mono.just(Optional.empty()));
   }
 
   @Override
-  public Mono<ProductAggregate> getCompositeProduct(int productId, int delay, int faultPercent) {
-    return Mono.zip(
-            values -> createProductAggregate(
-                (SecurityContext) values[0],
-                (Product) values[1],
-                (List<Recommendation>) values[2],
-                (List<Review>) values[3],
-                serviceUtil.getServiceAddress()
-            ),
-            ReactiveSecurityContextHolder.getContext().defaultIfEmpty(nullSC),
-            integration.getProduct(productId, delay, faultPercent)
-                .onErrorReturn(CallNotPermittedException.class, getProductFallbackValue(productId)),
-            integration.getRecommendations(productId).collectList(),
-            integration.getReviews(productId).collectList()
-        )
-        .doOnError(ex -> log.warn("getCompositeProduct failed: {}", ex.toString()))
-        .log();
+  public Flux<ProductAggregatePart> streamCompositeProduct(int productId) {
+    return ReactiveSecurityContextHolder.getContext()
+        .defaultIfEmpty(nullSC)
+        .doOnNext(sc -> logAuthorizationInfo(sc))
+        .thenMany(Flux.defer(() -> {
+          Flux<ProductAggregatePart> product = integration.getProduct(productId, 0, 0)
+              .doOnNext(lastKnownGood::put)
+              .onErrorResume(CallNotPermittedException.class, ex ->
+                  getProductFallbackValue(productId).map(StoredProduct::getProduct))
+              .map(p -> new ProductAggregatePart(PRODUCT, productId, p))
+              .flux();
+
+          // Parts of sections that fail are left out of the stream
+          Flux<ProductAggregatePart> details = Flux.merge(
+              integration.getRecommendations(productId)
+                  .map(r -> new ProductAggregatePart(RECOMMENDATION, productId,
+                      toRecommendationSummary(r)))
+                  .onErrorResume(ex -> Flux.empty()),
+              integration.getReviews(productId)
+                  .map(r -> new ProductAggregatePart(REVIEW, productId, toReviewSummary(r)))
+                  .onErrorResume(ex -> Flux.empty())
+          );
+
+          // All backends are called at once, but the product part is always emitted first
+          return Flux.mergeSequential(product, details);
+        }))
+        .doOnError(ex -> log.warn("streamCompositeProduct failed: {}", ex.toString()));
   }
 
   @Override
-  public Mono<Void> deleteCompositeProduct(int productId) {
+  public Flux<ProductAggregate> getCompositeProducts(List<Integer> productIds) {
+    if (productIds.size() > maxBatchSize) {
+      throw new InvalidInputException(
+          "Too many productIds: " + productIds.size() + ", max is " + maxBatchSize);
+    }
+
     return ReactiveSecurityContextHolder.getContext()
-        .doOnSuccess(sc -> internalDeleteCompositeProduct(sc, productId))
-        .then();
+        .defaultIfEmpty(nullSC)
+        .doOnNext(sc -> logAuthorizationInfo(sc))
+        .thenMany(Flux.defer(() -> loadCompositeProducts(productIds)))
+        .doOnError(ex -> log.warn("getCompositeProducts failed: {}", ex.toString()));
   }
 
-  private void internalDeleteCompositeProduct(SecurityContext sc, int productId) {
-    try {
-      logAuthorizationInfo(sc);
+  private Flux<ProductAggregate> loadCompositeProducts(List<Integer> productIds) {
+    List<Integer> distinctIds = productIds.stream().distinct().collect(toList());
 
-      log.debug("deleteCompositeProduct: Deletes a product aggregate for productId: {}", productId);
+    Map<Integer, ProductAggregate> aggregates = new HashMap<>();
+    List<Integer> missingIds = new ArrayList<>();
+    distinctIds.forEach(productId -> {
+      ProductAggregate cached = cache.get(productId);
+      if (cached != null) {
+        aggregates.put(productId, cached);
+      } else {
+        missingIds.add(productId);
+      }
+    });
 
-      integration.deleteProduct(productId);
-      integration.deleteRecommendations(productId);
-      integration.deleteReviews(productId);
+    log.debug("getCompositeProducts: {} found in cache, will fetch {}",
+        aggregates.size(), missingIds);
 
-      log.debug("deleteCompositeProduct: aggregate entities deleted for productId: {}", productId);
-    } catch (RuntimeException re) {
-      log.warn("deleteCompositeProduct failed: {}", re.toString());
-      throw re;
-    }
+    Mono<Map<Integer, ProductAggregate>> fetched = missingIds.isEmpty() ?
+        Mono.just(emptyMap()) : fetchCompositeProducts(missingIds);
+
+    return fetched.flatMapIterable(fetchedAggregates -> {
+      aggregates.putAll(fetchedAggregates);
+
+      // Keep the requested order, products that don't exist are left out
+      return distinctIds.stream()
+          .map(aggregates::get)
+          .filter(Objects::nonNull)
+          .collect(toList());
+    });
   }
 
-  private Product getProductFallbackValue(int productId) {
-    log.warn("Creating a fallback product for productId ={}", productId);
+  private Mono<Map<Integer, ProductAggregate>> fetchCompositeProducts(List<Integer> productIds) {
+    Map<Integer, Long> generations = productIds.stream()
+        .collect(toMap(identity(), cache::generation));
 
-    if (productId == 13) {
-      String errMsg = "Product Id: " + productId + " not found in fallback cache!";
+    return Mono.zip(
+            integration.getProducts(productIds).collectList(),
+            optionalSection(RECOMMENDATIONS,
+                integration.getRecommendationsForProducts(productIds).collectList()),
+            optionalSection(REVIEWS, integration.getReviewsForProducts(productIds).collectList())
+        )
+        .map(tuple -> {
+          Optional<Map<Integer, List<Recommendation>>> recommendations = tuple.getT2()
+              .map(list -> list.stream().collect(groupingBy(Recommendation::getProductId)));
+          Optional<Map<Integer, List<Review>>> reviews = tuple.getT3()
+              .map(list -> list.stream().collect(groupingBy(Review::getProductId)));
 
-      log.warn(errMsg);
+          Map<Integer, ProductAggregate> aggregates = new HashMap<>();
+          tuple.getT1().forEach(product -> {
+            lastKnownGood.put(product);
+            int productId = product.getProductId();
+            ProductAggregate aggregate = stageTimers.time("aggregate", () -> createProductAggregate(
+                product,
+                recommendations.map(byId -> byId.getOrDefault(productId, emptyList())).orElse(null),
+                reviews.map(byId -> byId.getOrDefault(productId, emptyList())).orElse(null),
+                serviceUtil.getServiceAddress()
+            ));
+            // Aggregates with missing sections are returned, but never cached
+            if (aggregate.getMissingSections() == null) {
+              cache.put(productId, aggregate, generations.get(productId));
+            }
+            aggregates.put(productId, aggregate);
+          });
 
-      throw new NotFoundException(errMsg);
-    }
+          return aggregates;
+        });
+  }
+
+  @Override
+  public Mono<Void> deleteCompositeProduct(int productId) {
+    return ReactiveSecurityContextHolder.getContext()
+        .doOnSuccess(sc -> logAuthorizationInfo(sc))
+        .then(Mono.defer(() -> internalDeleteCompositeProduct(productId)))
+        .doOnError(ex -> log.warn("deleteCompositeProduct failed: {}", ex.toString()));
+  }
+
+  private Mono<Void> internalDeleteCompositeProduct(int productId) {
+    log.debug("deleteCompositeProduct: Deletes a product aggregate for productId: {}", productId);
+
+    return Mono.when(
+            integration.deleteProduct(productId),
+            integration.deleteRecommendations(productId),
+            integration.deleteReviews(productId)
+        )
+        .doOnSuccess(v -> log.debug(
+            "deleteCompositeProduct: aggregate entities deleted for productId: {}", productId));
+  }
+
+  private Mono<StoredProduct> getProductFallbackValue(int productId) {
+    return Mono.defer(() -> {
+      Optional<StoredProduct> stored = lastKnownGood.getStale(productId);
+      if (stored.isEmpty()) {
+        String errMsg = "Product service unavailable and no last known good value for productId: "
+            + productId;
+        log.warn(errMsg);
+        return Mono.error(new ServiceUnavailableException(errMsg));
+      }
 
-    return new Product(productId, "Fallback product " + productId, productId,
-        serviceUtil.getServiceAddress());
+      log.warn("Serves last known good productId: {}, age: {}", productId, stored.get().getAge());
+      return Mono.just(stored.get());
+    });
   }
 
   private ProductAggregate createProductAggregate(
-      SecurityContext sc,
       Product product,
       List<Recommendation> recommendations,
       List<Review> reviews,
       String serviceAddress
   ) {
-    logAuthorizationInfo(sc);
-
     // 1. Setup product info
     int productId = product.getProductId();
     String name = product.getName();
@@ -167,23 +462,13 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
     // 2. Copy summary recommendation info, if available
     List<RecommendationSummary> recommendationSummaries = (recommendations == null) ? null :
         recommendations.stream()
-            .map(r -> new RecommendationSummary(
-                r.getRecommendationId(),
-                r.getAuthor(),
-                r.getRate(),
-                r.getContent()
-            ))
+            .map(this::toRecommendationSummary)
             .collect(Collectors.toList());
 
     // 3. Copy summary review info, if available
     List<ReviewSummary> reviewSummaries = (reviews == null) ? null :
         reviews.stream()
-            .map(r -> new ReviewSummary(
-                r.getReviewId(),
-                r.getAuthor(),
-                r.getSubject(),
-                r.getContent()
-            ))
+            .map(this::toReviewSummary)
             .collect(Collectors.toList());
 
     // 4. Create info regarding the involved microservices addresses
@@ -199,13 +484,61 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
         recommendationAddress
     );
 
+    // 5. Flag the optional sections that are missing
+    List<String> missingSections = new ArrayList<>();
+    if (recommendations == null) {
+      missingSections.add(RECOMMENDATIONS);
+    }
+    if (reviews == null) {
+      missingSections.add(REVIEWS);
+    }
+    if (!missingSections.isEmpty()) {
+      log.debug("Returns a partial response for productId: {}, missing: {}",
+          productId, missingSections);
+    }
+
     return new ProductAggregate(
         productId,
         name,
         weight,
         recommendationSummaries,
         reviewSummaries,
-        serviceAddresses
+        serviceAddresses,
+        missingSections.isEmpty() ? null : missingSections
+    );
+  }
+
+  private ProductAggregate project(ProductAggregate aggregate, Set<String> fieldset) {
+    if (fieldset.containsAll(ALL_FIELDS)) {
+      return aggregate;
+    }
+
+    return new ProductAggregate(
+        aggregate.getProductId(),
+        aggregate.getName(),
+        aggregate.getWeight(),
+        fieldset.contains(RECOMMENDATIONS) ? aggregate.getRecommendations() : null,
+        fieldset.contains(REVIEWS) ? aggregate.getReviews() : null,
+        fieldset.contains(SERVICE_ADDRESS) ? aggregate.getServiceAddress() : null,
+        aggregate.getMissingSections()
+    );
+  }
+
+  private RecommendationSummary toRecommendationSummary(Recommendation recommendation) {
+    return new RecommendationSummary(
+        recommendation.getRecommendationId(),
+        recommendation.getAuthor(),
+        recommendation.getRate(),
+        recommendation.getContent()
+    );
+  }
+
+  private ReviewSummary toReviewSummary(Review review) {
+    return new ReviewSummary(
+        review.getReviewId(),
+        review.getAuthor(),
+        review.getSubject(),
+        review.getContent()
     );
   }
 
@@ -0,0 +1,75 @@
+package com.example.microservices.composite.product.services;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+// Allows extra calls, e.g. hedges or retries, up to a ratio of the regular calls made within a
+// sliding window, plus a small reserve. Regular calls and extra calls older than the window no
+// longer count, so a burst of successful calls long ago can't pay for extra calls today.
+public class RequestBudget {
+
+  private static final int BUCKETS = 10;
+
+  private final double ratio;
+  private final double reserve;
+  private final long bucketNanos;
+  private final LongSupplier nanoClock;
+  private final long origin;
+
+  private final long[] deposits = new long[BUCKETS];
+  private final long[] withdrawals = new long[BUCKETS];
+  private long currentBucket;
+
+  public RequestBudget(double ratio, double reserve, Duration window) {
+    this(ratio, reserve, window, System::nanoTime);
+  }
+
+  public RequestBudget(double ratio, double reserve, Duration window, LongSupplier nanoClock) {
+    this.ratio = ratio;
+    this.reserve = reserve;
+    this.bucketNanos = Math.max(1, window.toNanos() / BUCKETS);
+    this.nanoClock = nanoClock;
+    this.origin = nanoClock.getAsLong();
+  }
+
+  public synchronized void deposit() {
+    advance();
+    deposits[(int) (currentBucket % BUCKETS)]++;
+  }
+
+  public synchronized boolean tryWithdraw() {
+    if (tokens() < 1) {
+      return false;
+    }
+
+    withdrawals[(int) (currentBucket % BUCKETS)]++;
+    return true;
+  }
+
+  public synchronized double getTokens() {
+    return tokens();
+  }
+
+  private double tokens() {
+    advance();
+    long deposited = 0;
+    long withdrawn = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      deposited += deposits[i];
+      withdrawn += withdrawals[i];
+    }
+    return reserve + ratio * deposited - withdrawn;
+  }
+
+  // Clears the buckets that have fallen out of the window since the last call
+  private void advance() {
+    long bucket = (nanoClock.getAsLong() - origin) / bucketNanos;
+    long expired = Math.min(bucket - currentBucket, BUCKETS);
+    for (long i = 1; i <= expired; i++) {
+      int index = (int) ((currentBucket + i) % BUCKETS);
+      deposits[index] = 0;
+      withdrawals[index] = 0;
+    }
+    currentBucket = Math.max(currentBucket, bucket);
+  }
+}
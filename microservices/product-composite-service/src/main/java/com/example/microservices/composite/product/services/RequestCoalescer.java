@@ -0,0 +1,64 @@
+package com.example.microservices.composite.product.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+@Component
+@Slf4j
+public class RequestCoalescer {
+
+  private final Map<Object, Mono<?>> inFlight = new ConcurrentHashMap<>();
+
+  private final Counter originatingCalls;
+  private final Counter coalescedCalls;
+
+  public RequestCoalescer(MeterRegistry meterRegistry) {
+    this.originatingCalls = Counter.builder("composite.coalescing.calls")
+        .description("Calls to the composite service, by whether they triggered or joined a fan-out")
+        .tag("type", "originating")
+        .register(meterRegistry);
+    this.coalescedCalls = Counter.builder("composite.coalescing.calls")
+        .description("Calls to the composite service, by whether they triggered or joined a fan-out")
+        .tag("type", "coalesced")
+        .register(meterRegistry);
+    meterRegistry.gaugeMapSize("composite.coalescing.in-flight", Tags.empty(), inFlight);
+  }
+
+  // Concurrent subscribers using the same key share one subscription to the call and its result.
+  // The call is cancelled once all its subscribers have cancelled. The key is released when the
+  // shared call terminates or is cancelled, later subscribers start a new call.
+  @SuppressWarnings("unchecked")
+  public <T> Mono<T> coalesce(Object key, Supplier<Mono<T>> call) {
+    return Mono.defer(() -> {
+      AtomicBoolean originating = new AtomicBoolean();
+
+      Mono<T> shared = (Mono<T>) inFlight.computeIfAbsent(key, k -> {
+        originating.set(true);
+        // Only releases its own entry, a new call for the key may already have taken its place
+        AtomicReference<Mono<T>> self = new AtomicReference<>();
+        self.set(call.get()
+            .doFinally(signal -> inFlight.remove(k, self.get()))
+            .share());
+        return self.get();
+      });
+
+      if (originating.get()) {
+        originatingCalls.increment();
+      } else {
+        log.debug("Coalesced call for key: {}", key);
+        coalescedCalls.increment();
+      }
+
+      return shared;
+    });
+  }
+}
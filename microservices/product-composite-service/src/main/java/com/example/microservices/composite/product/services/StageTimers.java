@@ -0,0 +1,108 @@
+package com.example.microservices.composite.product.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+@Component
+public class StageTimers {
+
+  public static final String OK = "ok";
+  public static final String FALLBACK = "fallback";
+  public static final String EMPTY = "empty";
+  public static final String ERROR = "error";
+  public static final String CANCELLED = "cancelled";
+
+  private final MeterRegistry meterRegistry;
+
+  // Timers are looked up per signal, keep them instead of going through the registry every time
+  private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+  public StageTimers(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  public Timer.Sample start() {
+    return Timer.start(meterRegistry);
+  }
+
+  public void record(Timer.Sample sample, String stage, String outcome) {
+    sample.stop(timer(stage, outcome));
+  }
+
+  public <T> T time(String stage, Supplier<T> supplier) {
+    Timer.Sample sample = start();
+    try {
+      T result = supplier.get();
+      record(sample, stage, OK);
+      return result;
+    } catch (RuntimeException ex) {
+      record(sample, stage, ERROR);
+      throw ex;
+    }
+  }
+
+  public <T> Mono<T> time(String stage, Mono<T> mono) {
+    return time(stage, mono, value -> OK);
+  }
+
+  // Times each subscription from subscribe to its first terminal signal, the outcome of a
+  // value is given by the classifier
+  public <T> Mono<T> time(String stage, Mono<T> mono, Function<? super T, String> outcome) {
+    return Mono.defer(() -> {
+      Timer.Sample sample = start();
+      AtomicBoolean recorded = new AtomicBoolean();
+
+      return mono
+          .doOnNext(value -> {
+            if (recorded.compareAndSet(false, true)) {
+              record(sample, stage, outcome.apply(value));
+            }
+          })
+          .doFinally(signal -> {
+            if (recorded.compareAndSet(false, true)) {
+              record(sample, stage, outcomeOf(signal, EMPTY));
+            }
+          });
+    });
+  }
+
+  public <T> Flux<T> time(String stage, Flux<T> flux) {
+    return Flux.defer(() -> {
+      Timer.Sample sample = start();
+      AtomicBoolean received = new AtomicBoolean();
+
+      return flux
+          .doOnNext(value -> received.lazySet(true))
+          .doFinally(signal ->
+              record(sample, stage, outcomeOf(signal, received.get() ? OK : EMPTY)));
+    });
+  }
+
+  private static String outcomeOf(SignalType signal, String completed) {
+    switch (signal) {
+      case ON_COMPLETE:
+        return completed;
+      case CANCEL:
+        return CANCELLED;
+      default:
+        return ERROR;
+    }
+  }
+
+  private Timer timer(String stage, String outcome) {
+    return timers.computeIfAbsent(stage + "/" + outcome, key -> Timer.builder("composite.stage")
+        .description("Time spent in each stage of building a composite product")
+        .tags("stage", stage, "outcome", outcome)
+        .publishPercentileHistogram()
+        .register(meterRegistry));
+  }
+}
@@ -0,0 +1,79 @@
+package com.example.microservices.composite.product.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Timer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Records the time spent serializing each response value, or each part of a streamed response
+// and each element of a Flux written as a JSON array
+public class TimedJackson2JsonEncoder extends Jackson2JsonEncoder {
+
+  private final StageTimers stageTimers;
+
+  public TimedJackson2JsonEncoder(ObjectMapper mapper, StageTimers stageTimers) {
+    super(mapper);
+    this.stageTimers = stageTimers;
+  }
+
+  @Override
+  public DataBuffer encodeValue(
+      Object value,
+      DataBufferFactory bufferFactory,
+      ResolvableType valueType,
+      MimeType mimeType,
+      Map<String, Object> hints
+  ) {
+    Timer.Sample sample = stageTimers.start();
+    try {
+      DataBuffer buffer = super.encodeValue(value, bufferFactory, valueType, mimeType, hints);
+      stageTimers.record(sample, "serialization", StageTimers.OK);
+      return buffer;
+    } catch (RuntimeException ex) {
+      stageTimers.record(sample, "serialization", StageTimers.ERROR);
+      throw ex;
+    }
+  }
+
+  // Monos go through encodeValue. Flux elements may be encoded one by one without it, each of them
+  // is timed from reaching the encoder to its buffer leaving it. A Flux the encoder collects into
+  // one list is timed by encodeValue instead, the input completes before the list is encoded.
+  @Override
+  public Flux<DataBuffer> encode(
+      Publisher<?> inputStream,
+      DataBufferFactory bufferFactory,
+      ResolvableType elementType,
+      MimeType mimeType,
+      Map<String, Object> hints
+  ) {
+    if (inputStream instanceof Mono) {
+      return super.encode(inputStream, bufferFactory, elementType, mimeType, hints);
+    }
+
+    return Flux.defer(() -> {
+      AtomicReference<Timer.Sample> encoding = new AtomicReference<>();
+      Flux<?> values = Flux.from(inputStream)
+          .doOnNext(value -> encoding.set(stageTimers.start()))
+          .doOnTerminate(() -> encoding.set(null));
+
+      return super.encode(values, bufferFactory, elementType, mimeType, hints)
+          .doOnNext(buffer -> recordEncoding(encoding, StageTimers.OK))
+          .doOnError(ex -> recordEncoding(encoding, StageTimers.ERROR));
+    });
+  }
+
+  private void recordEncoding(AtomicReference<Timer.Sample> encoding, String outcome) {
+    Timer.Sample sample = encoding.getAndSet(null);
+    if (sample != null) {
+      stageTimers.record(sample, "serialization", outcome);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package com.example.microservices.composite.product;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.microservices.composite.product.services.AdaptiveConcurrencyLimit;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveConcurrencyLimitTests {
+
+  private final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(
+      "test",
+      new SimpleMeterRegistry(),
+      20,
+      5,
+      100,
+      0.2,
+      1.5
+  );
+
+  @Test
+  void rejectAboveLimit() {
+    for (int i = 0; i < 20; i++) {
+      assertThat(limit.tryAcquire()).isTrue();
+    }
+    assertThat(limit.tryAcquire()).isFalse();
+
+    limit.releaseIgnored();
+    assertThat(limit.tryAcquire()).isTrue();
+  }
+
+  @Test
+  void growWhileLatencyIsStable() {
+    callsAtLimit(100, Duration.ofMillis(10));
+
+    assertThat(limit.getLimit()).isGreaterThan(20);
+  }
+
+  @Test
+  void shrinkWhenLatencyIncreases() {
+    callsAtLimit(100, Duration.ofMillis(10));
+    int saturated = limit.getLimit();
+
+    callsAtLimit(2, Duration.ofMillis(100));
+
+    assertThat(limit.getLimit()).isLessThan(saturated);
+  }
+
+  @Test
+  void shrinkOnDrops() {
+    limit.tryAcquire();
+    limit.releaseDropped();
+
+    assertThat(limit.getLimit()).isEqualTo(18);
+    assertThat(limit.getInFlight()).isZero();
+  }
+
+  // Keeps the limit fully used, so it is allowed to grow
+  private void callsAtLimit(int rounds, Duration rtt) {
+    for (int i = 0; i < rounds; i++) {
+      int admitted = 0;
+      while (limit.tryAcquire()) {
+        admitted++;
+      }
+      for (int j = 0; j < admitted; j++) {
+        limit.release(rtt);
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package com.example.microservices.composite.product;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.microservices.composite.product.services.AdaptiveTimeout;
+import com.example.microservices.composite.product.services.LatencyTracker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class AdaptiveTimeoutTests {
+
+  private final LatencyTracker latency = new LatencyTracker(100, 10);
+
+  private final AdaptiveTimeout timeout = new AdaptiveTimeout(
+      "test",
+      new SimpleMeterRegistry(),
+      latency,
+      0.99,
+      2.0,
+      Duration.ofMillis(100),
+      Duration.ofMillis(2000)
+  );
+
+  @Test
+  void useCeilingUntilEnoughSamples() {
+    recordLatencies(9, Duration.ofMillis(10));
+
+    assertThat(timeout.current()).isEqualTo(Duration.ofMillis(2000));
+  }
+
+  @Test
+  void followLatencyPercentile() {
+    recordLatencies(100, Duration.ofMillis(300));
+
+    assertThat(timeout.current()).isEqualTo(Duration.ofMillis(600));
+  }
+
+  @Test
+  void keepWithinFloorAndCeiling() {
+    recordLatencies(100, Duration.ofMillis(10));
+    assertThat(timeout.current()).isEqualTo(Duration.ofMillis(100));
+
+    recordLatencies(100, Duration.ofMillis(5000));
+    assertThat(timeout.current()).isEqualTo(Duration.ofMillis(2000));
+  }
+
+  @Test
+  void recordTimedOutCallsAtTimeout() {
+    recordLatencies(100, Duration.ofMillis(300));
+
+    for (int i = 0; i < 10; i++) {
+      StepVerifier.withVirtualTime(() -> timeout.apply(Mono.never()))
+          .thenAwait(Duration.ofSeconds(5))
+          .verifyError(TimeoutException.class);
+    }
+
+    assertThat(timeout.current()).isGreaterThan(Duration.ofMillis(600));
+  }
+
+  @Test
+  void applyCeilingToWholeBatchCall() {
+    recordLatencies(9, Duration.ofMillis(10));
+
+    // Every element arrives well within the ceiling, the whole call doesn't
+    StepVerifier.withVirtualTime(() -> timeout.applyCeiling(
+            Flux.interval(Duration.ofMillis(600)).take(10)))
+        .thenAwait(Duration.ofSeconds(5))
+        .expectNextCount(3)
+        .verifyError(TimeoutException.class);
+
+    assertThat(timeout.current()).isEqualTo(Duration.ofMillis(2000));
+  }
+
+  private void recordLatencies(int count, Duration value) {
+    for (int i = 0; i < count; i++) {
+      latency.record(value);
+    }
+  }
+}
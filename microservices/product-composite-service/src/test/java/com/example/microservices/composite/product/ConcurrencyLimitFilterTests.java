@@ -0,0 +1,101 @@
+package com.example.microservices.composite.product;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.http.HttpHeaders.RETRY_AFTER;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class ConcurrencyLimitFilterTests {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  // Admits one request at a time, asks rejected clients to retry after 1 s
+  private final ConcurrencyLimitFilter filter =
+      new ConcurrencyLimitFilter(meterRegistry, true, 1, 1, 1, 0.2, 1.5, 1);
+
+  private Disposable running;
+
+  @AfterEach
+  void stopRunningRequest() {
+    if (running != null) {
+      running.dispose();
+    }
+  }
+
+  @Test
+  void rejectRequestsAboveLimit() {
+    running = filter.filter(exchange("/product-composite/1"), exchange -> Mono.never())
+        .subscribe();
+
+    MockServerWebExchange rejected = exchange("/product-composite/2");
+    StepVerifier.create(filter.filter(rejected, exchange -> Mono.empty()))
+        .verifyComplete();
+
+    assertThat(rejected.getResponse().getStatusCode()).isEqualTo(SERVICE_UNAVAILABLE);
+    assertThat(rejected.getResponse().getHeaders().getFirst(RETRY_AFTER)).isEqualTo("1");
+    assertThat(meterRegistry.get("composite.concurrency.rejected").counter().count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  void releasePermitOnCompletion() {
+    StepVerifier.create(filter.filter(exchange("/product-composite/1"), exchange -> Mono.empty()))
+        .verifyComplete();
+
+    assertThat(inFlight()).isZero();
+  }
+
+  @Test
+  void releasePermitOnError() {
+    StepVerifier.create(filter.filter(exchange("/product-composite/1"),
+            exchange -> Mono.error(new IllegalStateException())))
+        .verifyError(IllegalStateException.class);
+
+    assertThat(inFlight()).isZero();
+  }
+
+  @Test
+  void releasePermitOnCancel() {
+    StepVerifier.create(filter.filter(exchange("/product-composite/1"), exchange -> Mono.never()))
+        .thenCancel()
+        .verify();
+
+    assertThat(inFlight()).isZero();
+  }
+
+  @Test
+  void limitOnlyRequestsToCompositeApi() {
+    running = filter.filter(exchange("/product-composite/1"), exchange -> Mono.never())
+        .subscribe();
+
+    AtomicInteger passed = new AtomicInteger();
+    for (String path : new String[] {
+        "/product-composite-admin", "/product-composite/1/stream", "/actuator/health"}) {
+      MockServerWebExchange exchange = exchange(path);
+      StepVerifier.create(filter.filter(exchange, e -> Mono.fromRunnable(passed::incrementAndGet)))
+          .verifyComplete();
+      assertThat(exchange.getResponse().getStatusCode()).isNotEqualTo(SERVICE_UNAVAILABLE);
+    }
+
+    assertThat(passed).hasValue(3);
+    assertThat(inFlight()).isEqualTo(1);
+  }
+
+  private static MockServerWebExchange exchange(String path) {
+    return MockServerWebExchange.from(MockServerHttpRequest.get(path));
+  }
+
+  private double inFlight() {
+    return meterRegistry.get("composite.concurrency.in-flight").tag("limiter", "inbound").gauge()
+        .value();
+  }
+}
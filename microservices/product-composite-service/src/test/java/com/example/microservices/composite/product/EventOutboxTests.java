@@ -0,0 +1,179 @@
+package com.example.microservices.composite.product;
+
+import static com.example.api.event.Event.Type.CREATE;
+import static com.example.api.event.Event.Type.DELETE;
+import static com.example.microservices.composite.product.services.ProductCompositeIntegration.MessageSources.OUTPUT_PRODUCTS;
+import static com.example.microservices.composite.product.services.ProductCompositeIntegration.MessageSources.OUTPUT_REVIEWS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.example.api.core.product.Product;
+import com.example.api.event.Event;
+import com.example.microservices.composite.product.services.EventOutbox;
+import com.example.microservices.composite.product.services.EventPublisher;
+import com.example.microservices.composite.product.services.ProductCompositeIntegration.MessageSources;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.MessageChannel;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+class EventOutboxTests {
+
+  @TempDir
+  Path directory;
+
+  private final EventPublisher eventPublisher = mock(EventPublisher.class);
+  private final MessageSources messageSources = mock(MessageSources.class);
+
+  private SimpleMeterRegistry meterRegistry;
+  private EventOutbox outbox;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    when(messageSources.outputProducts()).thenReturn(mock(MessageChannel.class));
+    when(messageSources.outputRecommendations()).thenReturn(mock(MessageChannel.class));
+    when(messageSources.outputReviews()).thenReturn(mock(MessageChannel.class));
+    when(eventPublisher.publish(anyString(), any(), any())).thenReturn(Mono.empty());
+
+    outbox = createOutbox();
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    outbox.close();
+  }
+
+  @Test
+  void relayAppendedEvents() {
+    outbox.append(OUTPUT_PRODUCTS, new Event<>(CREATE, 1, new Product(1, "name", 1, null))).block();
+    outbox.append(OUTPUT_REVIEWS, new Event<>(DELETE, 1, null)).block();
+
+    verify(eventPublisher, timeout(5000)).publish(eq(OUTPUT_PRODUCTS), any(),
+        argThat(event -> event.getEventType() == CREATE && event.getKey().equals(1)));
+    verify(eventPublisher, timeout(5000)).publish(eq(OUTPUT_REVIEWS), any(),
+        argThat(event -> event.getEventType() == DELETE && event.getKey().equals(1)));
+  }
+
+  @Test
+  void keepEventsUntilRelayed() throws IOException {
+    when(eventPublisher.publish(anyString(), any(), any()))
+        .thenReturn(Mono.error(new RuntimeException("Broker unavailable")));
+
+    outbox.append(OUTPUT_PRODUCTS, new Event<>(DELETE, 1, null)).block();
+    verify(eventPublisher, timeout(5000)).publish(eq(OUTPUT_PRODUCTS), any(), any());
+
+    // The event is relayed once the broker is back, also after a restart
+    outbox.close();
+    when(eventPublisher.publish(anyString(), any(), any())).thenReturn(Mono.empty());
+    clearInvocations(eventPublisher);
+    outbox = createOutbox();
+
+    verify(eventPublisher, timeout(5000)).publish(eq(OUTPUT_PRODUCTS), any(),
+        argThat(event -> event.getEventType() == DELETE && event.getKey().equals(1)));
+  }
+
+  @Test
+  void relayEventsWithSameKeyInOrder() {
+    List<Event<?, ?>> relayed = Collections.synchronizedList(new ArrayList<>());
+    when(eventPublisher.publish(anyString(), any(), any())).thenAnswer(invocation -> {
+      Event<?, ?> event = invocation.getArgument(2);
+      // The first event is confirmed by the broker after the second would have been
+      Duration confirmDelay = Duration.ofMillis(event.getEventType() == CREATE ? 200 : 10);
+      return Mono.delay(confirmDelay).then(Mono.fromRunnable(() -> relayed.add(event)));
+    });
+
+    outbox.append(OUTPUT_PRODUCTS, new Event<>(CREATE, 1, new Product(1, "name", 1, null))).block();
+    outbox.append(OUTPUT_PRODUCTS, new Event<>(DELETE, 1, null)).block();
+
+    verify(eventPublisher, timeout(5000).times(2)).publish(eq(OUTPUT_PRODUCTS), any(), any());
+    Mono.fromSupplier(relayed::size)
+        .filter(size -> size == 2)
+        .repeatWhenEmpty(repeats -> repeats.delayElements(Duration.ofMillis(10)))
+        .block(Duration.ofSeconds(5));
+
+    assertThat(relayed.get(0).getEventType()).isEqualTo(CREATE);
+    assertThat(relayed.get(1).getEventType()).isEqualTo(DELETE);
+  }
+
+  @Test
+  void deleteRelayedSegments() throws IOException {
+    for (int i = 0; i < 20; i++) {
+      outbox.append(OUTPUT_PRODUCTS, new Event<>(DELETE, i, null)).block();
+    }
+    verify(eventPublisher, timeout(5000).times(20)).publish(eq(OUTPUT_PRODUCTS), any(), any());
+
+    Mono.fromSupplier(() -> meterRegistry.get("composite.outbox.pending").gauge().value())
+        .filter(pending -> pending == 0)
+        .repeatWhenEmpty(repeats -> repeats.delayElements(Duration.ofMillis(10)))
+        .block(Duration.ofSeconds(5));
+
+    // Only the last segment is kept once everything is relayed
+    assertThat(segmentCount()).isEqualTo(1);
+
+    // Nothing is relayed again after a restart
+    outbox.close();
+    clearInvocations(eventPublisher);
+    outbox = createOutbox();
+    verify(eventPublisher, after(500).never()).publish(anyString(), any(), any());
+  }
+
+  @Test
+  void requireDirectory() {
+    assertThrows(IllegalStateException.class, () -> createOutbox(" "));
+  }
+
+  private long segmentCount() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(file -> file.getFileName().toString().startsWith("events-")).count();
+    }
+  }
+
+  private EventOutbox createOutbox() throws IOException {
+    return createOutbox(directory.toString());
+  }
+
+  // Segments small enough for a few events each
+  private EventOutbox createOutbox(String directory) throws IOException {
+    meterRegistry = new SimpleMeterRegistry();
+    return new EventOutbox(
+        new ObjectMapper().registerModule(new JavaTimeModule()),
+        eventPublisher,
+        Schedulers.boundedElastic(),
+        Schedulers.boundedElastic(),
+        messageSources,
+        meterRegistry,
+        true,
+        directory,
+        true,
+        500,
+        1000,
+        10,
+        2,
+        10
+    );
+  }
+}
@@ -9,6 +9,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.cloud.stream.test.matcher.MessageQueueMatcher.receivesPayloadThat;
 import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
 import static reactor.core.publisher.Mono.just;
 
 import com.example.api.composite.product.ProductAggregate;
@@ -19,6 +20,7 @@ import com.example.api.core.recommendation.Recommendation;
 import com.example.api.core.review.Review;
 import com.example.api.event.Event;
 import com.example.microservices.composite.product.services.ProductCompositeIntegration;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -63,7 +65,8 @@ class MessagingTests {
 
   @Test
   void createCompositeProduct1() {
-    ProductAggregate composite = new ProductAggregate(PRODUCT_ID_OK, "name", 1, null, null, null);
+    ProductAggregate composite = new ProductAggregate(PRODUCT_ID_OK, "name", 1, null, null, null,
+        null);
     postAndVerifyProduct(composite, OK);
 
     // Assert one expected new product events queued up
@@ -86,6 +89,7 @@ class MessagingTests {
     ProductAggregate composite = new ProductAggregate(PRODUCT_ID_OK, "name", 1,
         singletonList(new RecommendationSummary(1, "a", 1, "c")),
         singletonList(new ReviewSummary(1, "a", "s", "c")),
+        null,
         null
     );
 
@@ -101,32 +105,89 @@ class MessagingTests {
     );
     assertThat(queueProducts, receivesPayloadThat(sameEventExceptCreatedAt(expectedProductEvent)));
 
-    // Assert one create recommendation event queued up
+    // Assert one bulk create recommendation event queued up
     assertEquals(1, queueRecommendations.size());
 
     RecommendationSummary rec = composite.getRecommendations().get(0);
-    Event<Integer, Recommendation> expectedRecommendationEvent = new Event(
+    Event<Integer, List<Recommendation>> expectedRecommendationEvent = new Event(
         CREATE,
         composite.getProductId(),
-        new Recommendation(composite.getProductId(), rec.getRecommendationId(), rec.getAuthor(),
-            rec.getRate(), rec.getContent(), null)
+        singletonList(new Recommendation(composite.getProductId(), rec.getRecommendationId(),
+            rec.getAuthor(), rec.getRate(), rec.getContent(), null))
     );
     assertThat(queueRecommendations,
         receivesPayloadThat(sameEventExceptCreatedAt(expectedRecommendationEvent)));
 
-    // Assert one create review event queued up
+    // Assert one bulk create review event queued up
     assertEquals(1, queueReviews.size());
 
     ReviewSummary rev = composite.getReviews().get(0);
-    Event<Integer, Review> expectedReveiwEvent = new Event(
+    Event<Integer, List<Review>> expectedReveiwEvent = new Event(
         CREATE,
         composite.getProductId(),
-        new Review(composite.getProductId(), rev.getReviewId(), rev.getAuthor(), rev.getSubject(),
-            rev.getContent(), null)
+        singletonList(new Review(composite.getProductId(), rev.getReviewId(), rev.getAuthor(),
+            rev.getSubject(), rev.getContent(), null))
     );
     assertThat(queueReviews, receivesPayloadThat(sameEventExceptCreatedAt(expectedReveiwEvent)));
   }
 
+  @Test
+  void createCompositeProductWithManyReviews() {
+    List<ReviewSummary> reviews = List.of(
+        new ReviewSummary(1, "a", "s", "c"),
+        new ReviewSummary(2, "a", "s", "c"),
+        new ReviewSummary(3, "a", "s", "c")
+    );
+    ProductAggregate composite = new ProductAggregate(PRODUCT_ID_OK, "name", 1, null, reviews,
+        null, null);
+
+    postAndVerifyProduct(composite, OK);
+
+    // Assert one create product event and no recommendation events queued up
+    assertEquals(1, queueProducts.size());
+    queueProducts.clear();
+    assertEquals(0, queueRecommendations.size());
+
+    // Assert all reviews are sent in one bulk event
+    assertEquals(1, queueReviews.size());
+
+    Event<Integer, List<Review>> expectedReviewEvent = new Event(
+        CREATE,
+        composite.getProductId(),
+        List.of(
+            new Review(composite.getProductId(), 1, "a", "s", "c", null),
+            new Review(composite.getProductId(), 2, "a", "s", "c", null),
+            new Review(composite.getProductId(), 3, "a", "s", "c", null)
+        )
+    );
+    assertThat(queueReviews, receivesPayloadThat(sameEventExceptCreatedAt(expectedReviewEvent)));
+  }
+
+  @Test
+  void createCompositeProductReplayedWithIdempotencyKey() {
+    ProductAggregate composite = new ProductAggregate(PRODUCT_ID_OK, "name", 1, null, null, null,
+        null);
+
+    postAndVerifyProduct(composite, "key-1", OK);
+    postAndVerifyProduct(composite, "key-1", OK);
+
+    // Assert the retry is answered without publishing the events again
+    assertEquals(1, queueProducts.size());
+    queueProducts.clear();
+
+    // Assert the key can't be reused for another product
+    ProductAggregate other = new ProductAggregate(PRODUCT_ID_NOT_FOUND, "name", 1, null, null,
+        null, null);
+    postAndVerifyProduct(other, "key-1", UNPROCESSABLE_ENTITY);
+    assertEquals(0, queueProducts.size());
+
+    // Assert the key can't be reused for another request for the same product either
+    ProductAggregate changed = new ProductAggregate(PRODUCT_ID_OK, "other name", 1, null, null,
+        null, null);
+    postAndVerifyProduct(changed, "key-1", UNPROCESSABLE_ENTITY);
+    assertEquals(0, queueProducts.size());
+  }
+
   @Test
   void deleteCompositeProduct() {
     deleteAndVerifyProduct(PRODUCT_ID_OK, OK);
@@ -156,8 +217,21 @@ class MessagingTests {
   }
 
   private void postAndVerifyProduct(ProductAggregate compositeProduct, HttpStatus expectedStatus) {
+    postAndVerifyProduct(compositeProduct, null, expectedStatus);
+  }
+
+  private void postAndVerifyProduct(
+      ProductAggregate compositeProduct,
+      String idempotencyKey,
+      HttpStatus expectedStatus
+  ) {
     client.post()
         .uri("/product-composite")
+        .headers(headers -> {
+          if (idempotencyKey != null) {
+            headers.set("Idempotency-Key", idempotencyKey);
+          }
+        })
         .body(just(compositeProduct), ProductAggregate.class)
         .exchange()
         .expectStatus().isEqualTo(expectedStatus);
@@ -0,0 +1,55 @@
+package com.example.microservices.composite.product;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.microservices.composite.product.services.AdaptiveConcurrencyLimit;
+import com.example.microservices.composite.product.services.OutboundConcurrencyLimiter;
+import com.example.util.exceptions.ServiceUnavailableException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.test.publisher.TestPublisher;
+
+class OutboundConcurrencyLimiterTests {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final AdaptiveConcurrencyLimit limit =
+      new AdaptiveConcurrencyLimit("test", meterRegistry, 1, 1, 1, 0.2, 2.0);
+
+  private final OutboundConcurrencyLimiter limiter = new OutboundConcurrencyLimiter(
+      "test", meterRegistry, limit, 1, Duration.ofSeconds(5));
+
+  @Test
+  void queueCallsAboveLimit() {
+    TestPublisher<String> first = TestPublisher.create();
+    Disposable running = limiter.apply(first.mono()).subscribe();
+
+    // The second call waits for the permit of the first
+    StepVerifier.create(limiter.apply(Mono.just("second")))
+        .then(() -> first.emit("first"))
+        .expectNext("second")
+        .verifyComplete();
+
+    running.dispose();
+    assertThat(limit.getInFlight()).isZero();
+  }
+
+  @Test
+  void shedCallsWhenQueueIsFull() {
+    Disposable running = limiter.apply(Mono.never()).subscribe();
+    Disposable queued = limiter.apply(Mono.never()).subscribe();
+
+    StepVerifier.create(limiter.apply(Mono.just("shed")))
+        .verifyError(ServiceUnavailableException.class);
+
+    // Cancelled calls give back their permit
+    queued.dispose();
+    running.dispose();
+    assertThat(limit.getInFlight()).isZero();
+    assertThat(meterRegistry.get("composite.concurrency.queued").gauge().value()).isZero();
+  }
+}
@@ -0,0 +1,248 @@
+package com.example.microservices.composite.product;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+
+import com.example.microservices.composite.product.services.BackendConcurrencyLimits;
+import com.example.microservices.composite.product.services.BackendTimeouts;
+import com.example.microservices.composite.product.services.EventOutbox;
+import com.example.microservices.composite.product.services.EventPublisher;
+import com.example.microservices.composite.product.services.ProductCompositeIntegration;
+import com.example.microservices.composite.product.services.StageTimers;
+import com.example.util.http.Deadline;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class ProductCompositeIntegrationTests {
+
+  private static final String PRODUCT_JSON =
+      "{\"productId\":1,\"name\":\"name\",\"weight\":1,\"serviceAddress\":\"address\"}";
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  // Answers the n-th call to the product service, counted from 0
+  private IntFunction<Mono<ClientResponse>> productService;
+  private final AtomicInteger calls = new AtomicInteger();
+  private final List<Long> deadlineHeaders = new CopyOnWriteArrayList<>();
+
+  @Test
+  void hedgeWinsOverSlowCall() {
+    productService = call -> call == 0 ? respond(OK, 2000) : respond(OK, 10);
+
+    Duration elapsed = StepVerifier.create(integration(true, 10, 1, 10).getProduct(1, 0, 0))
+        .expectNextMatches(product -> product.getProductId() == 1)
+        .verifyComplete();
+
+    assertThat(elapsed).isLessThan(Duration.ofMillis(1000));
+    assertThat(hedges("sent")).isEqualTo(1);
+    assertThat(hedges("won")).isEqualTo(1);
+  }
+
+  @Test
+  void hedgeWinsOverFailedCall() {
+    productService = call -> call == 0 ? respond(INTERNAL_SERVER_ERROR, 100) : respond(OK, 200);
+
+    StepVerifier.create(integration(true, 10, 1, 10).getProduct(1, 0, 0))
+        .expectNextMatches(product -> product.getProductId() == 1)
+        .verifyComplete();
+
+    assertThat(hedges("won")).isEqualTo(1);
+  }
+
+  @Test
+  void returnFirstErrorWhenBothFail() {
+    productService = call ->
+        call == 0 ? respond(INTERNAL_SERVER_ERROR, 200) : respond(SERVICE_UNAVAILABLE, 10);
+
+    StepVerifier.create(integration(true, 10, 1, 10).getProduct(1, 0, 0))
+        .verifyError(WebClientResponseException.InternalServerError.class);
+
+    assertThat(hedges("sent")).isEqualTo(1);
+    assertThat(hedges("won")).isZero();
+  }
+
+  @Test
+  void noHedgeAfterFailedCall() {
+    productService = call -> respond(INTERNAL_SERVER_ERROR, 0);
+
+    StepVerifier.create(integration(true, 10, 1, 10).getProduct(1, 0, 0))
+        .verifyError(WebClientResponseException.InternalServerError.class);
+
+    assertThat(calls).hasValue(1);
+    assertThat(hedges("sent")).isZero();
+  }
+
+  @Test
+  void denyHedgesWhenBudgetIsExhausted() {
+    productService = call -> respond(OK, 100);
+    ProductCompositeIntegration integration = integration(true, 0, 1, 10);
+
+    // The budget starts with 10 hedges and earns none without a budget percent
+    for (int i = 0; i < 11; i++) {
+      StepVerifier.create(integration.getProduct(1, 0, 0))
+          .expectNextCount(1)
+          .verifyComplete();
+    }
+
+    assertThat(hedges("sent")).isEqualTo(10);
+    assertThat(hedges("denied")).isEqualTo(1);
+  }
+
+  @Test
+  void timeoutShrinksConcurrencyLimit() {
+    productService = call -> respond(OK, 2000);
+    double initialLimit = productLimit();
+
+    StepVerifier.create(integration(false, 10, 1, 10).getProduct(1, 0, 0))
+        .verifyError(TimeoutException.class);
+
+    assertThat(productLimit()).isLessThan(initialLimit);
+    assertThat(meterRegistry.get("composite.concurrency.in-flight").tag("limiter", "product")
+        .gauge().value()).isZero();
+  }
+
+  @Test
+  void retryServerErrors() {
+    productService = call -> call < 2 ? respond(INTERNAL_SERVER_ERROR, 0) : respond(OK, 0);
+
+    StepVerifier.create(integration(false, 10, 3, 10).getProduct(1, 0, 0))
+        .expectNextMatches(product -> product.getProductId() == 1)
+        .verifyComplete();
+
+    assertThat(calls).hasValue(3);
+    assertThat(retries("sent")).isEqualTo(2);
+  }
+
+  @Test
+  void lastFailureIsNoRetry() {
+    productService = call -> respond(INTERNAL_SERVER_ERROR, 0);
+
+    StepVerifier.create(integration(false, 10, 3, 10).getProduct(1, 0, 0))
+        .verifyError(WebClientResponseException.InternalServerError.class);
+
+    assertThat(calls).hasValue(3);
+    assertThat(retries("sent")).isEqualTo(2);
+    assertThat(retries("denied")).isZero();
+    assertThat(retryBudget()).isEqualTo(8);
+  }
+
+  @Test
+  void denyRetriesWhenBudgetIsExhausted() {
+    productService = call -> respond(INTERNAL_SERVER_ERROR, 0);
+    ProductCompositeIntegration integration = integration(false, 10, 2, 0);
+
+    // The budget starts with 10 retries and earns none without a budget percent
+    for (int i = 0; i < 11; i++) {
+      StepVerifier.create(integration.getProduct(1, 0, 0))
+          .verifyError(WebClientResponseException.InternalServerError.class);
+    }
+
+    assertThat(calls).hasValue(21);
+    assertThat(retries("sent")).isEqualTo(10);
+    assertThat(retries("denied")).isEqualTo(1);
+    assertThat(retryBudget()).isZero();
+  }
+
+  @Test
+  void sendRemainingDeadlineWithRetry() {
+    productService = call -> call == 0 ? respond(INTERNAL_SERVER_ERROR, 100) : respond(OK, 0);
+
+    StepVerifier.create(integration(false, 10, 3, 10).getProduct(1, 0, 0)
+            .contextWrite(context ->
+                context.put(Deadline.class, Deadline.after(Duration.ofMillis(400)))))
+        .expectNextMatches(product -> product.getProductId() == 1)
+        .verifyComplete();
+
+    assertThat(deadlineHeaders).hasSize(2);
+    assertThat(deadlineHeaders.get(0)).isBetween(300L, 400L);
+    assertThat(deadlineHeaders.get(1)).isLessThanOrEqualTo(deadlineHeaders.get(0) - 100);
+  }
+
+  @Test
+  void sendCallTimeoutWithoutDeadline() {
+    productService = call -> respond(OK, 0);
+
+    StepVerifier.create(integration(false, 10, 1, 10).getProduct(1, 0, 0))
+        .expectNextCount(1)
+        .verifyComplete();
+
+    assertThat(deadlineHeaders).containsExactly(500L);
+  }
+
+  private ProductCompositeIntegration integration(
+      boolean hedgingEnabled,
+      double hedgingBudgetPercent,
+      int retryMaxAttempts,
+      double retryBudgetPercent
+  ) {
+    WebClient.Builder webClientBuilder = WebClient.builder()
+        .exchangeFunction(request -> {
+          deadlineHeaders.add(Long.valueOf(request.headers().getFirst(Deadline.HEADER)));
+          return productService.apply(calls.getAndIncrement());
+        });
+
+    // Too few samples for adaptive timeouts and hedge delays, the ceiling and initial delay apply
+    return new ProductCompositeIntegration(
+        webClientBuilder,
+        new ObjectMapper(),
+        mock(ProductCompositeIntegration.MessageSources.class),
+        mock(EventPublisher.class),
+        mock(EventOutbox.class),
+        meterRegistry,
+        new BackendTimeouts(meterRegistry, 1000, 1000, 0.99, 2.0, 100, 500),
+        new BackendConcurrencyLimits(meterRegistry, 20, 2, 200, 0.2, 2.0, 50, 100),
+        new StageTimers(meterRegistry),
+        hedgingEnabled,
+        0.95,
+        50,
+        50,
+        hedgingBudgetPercent,
+        retryMaxAttempts,
+        10,
+        retryBudgetPercent
+    );
+  }
+
+  private static Mono<ClientResponse> respond(HttpStatus status, long delayMs) {
+    return Mono.delay(Duration.ofMillis(delayMs))
+        .map(tick -> ClientResponse.create(status)
+            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+            .body(status == OK ? PRODUCT_JSON : "{}")
+            .build());
+  }
+
+  private double productLimit() {
+    return meterRegistry.get("composite.concurrency.limit").tag("limiter", "product").gauge()
+        .value();
+  }
+
+  private double retryBudget() {
+    return meterRegistry.get("composite.retry.budget").gauge().value();
+  }
+
+  private double retries(String result) {
+    return meterRegistry.get("composite.retries").tag("result", result).counter().count();
+  }
+
+  private double hedges(String result) {
+    return meterRegistry.get("composite.hedges").tag("result", result).counter().count();
+  }
+}
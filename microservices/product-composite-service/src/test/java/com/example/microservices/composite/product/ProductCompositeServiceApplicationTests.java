@@ -1,27 +1,47 @@
 package com.example.microservices.composite.product;
 
+import static com.example.api.event.Event.Type.DELETE;
 import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
 
+import com.example.api.composite.product.ProductAggregate;
 import com.example.api.core.product.Product;
 import com.example.api.core.recommendation.Recommendation;
 import com.example.api.core.review.Review;
+import com.example.api.event.Event;
+import com.example.microservices.composite.product.services.CacheInvalidationProcessor;
+import com.example.microservices.composite.product.services.ProductAggregateCache;
 import com.example.microservices.composite.product.services.ProductCompositeIntegration;
 import com.example.util.exceptions.InvalidInputException;
 import com.example.util.exceptions.NotFoundException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.messaging.support.GenericMessage;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -29,17 +49,37 @@ import reactor.core.publisher.Mono;
 @SpringBootTest(
     webEnvironment = RANDOM_PORT,
     classes = {ProductCompositeServiceApplication.class, TestSecurityConfig.class},
-    properties = {"spring.main.allow-bean-definition-overriding=true"}
+    properties = {
+        "spring.main.allow-bean-definition-overriding=true",
+        "app.product-composite.softDeadlineMs=500"
+    }
 )
 class ProductCompositeServiceApplicationTests {
 
   private static final int PRODUCT_ID_OK = 1;
   private static final int PRODUCT_ID_NOT_FOUND = 2;
   private static final int PRODUCT_ID_INVALID = 3;
+  private static final int PRODUCT_ID_CACHED = 4;
+  private static final int PRODUCT_ID_STALE = 5;
+  private static final int PRODUCT_ID_UNAVAILABLE = 6;
+  private static final int PRODUCT_ID_FIELDS = 7;
+  private static final int PRODUCT_ID_DEGRADED = 8;
+  private static final int PRODUCT_ID_BATCH_DEGRADED = 9;
+  private static final int PRODUCT_ID_SLOW_SECTIONS = 10;
+  private static final int PRODUCT_ID_DELETED = 11;
 
   @Autowired
   private WebTestClient client;
 
+  @Autowired
+  private ProductAggregateCache cache;
+
+  @Autowired
+  private CacheInvalidationProcessor.MessageSinks sinks;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
   @MockBean
   private ProductCompositeIntegration compositeIntegration;
 
@@ -66,6 +106,63 @@ class ProductCompositeServiceApplicationTests {
             "mock-address"
         ))));
 
+    when(compositeIntegration.getProduct(eq(PRODUCT_ID_CACHED), anyInt(), anyInt()))
+        .thenReturn(Mono.just(new Product(PRODUCT_ID_CACHED, "name", 1, "mock-address")));
+    when(compositeIntegration.getRecommendations(PRODUCT_ID_CACHED)).thenReturn(Flux.empty());
+    when(compositeIntegration.getReviews(PRODUCT_ID_CACHED)).thenReturn(Flux.empty());
+
+    when(compositeIntegration.getProducts(anyList()))
+        .thenReturn(Flux.just(new Product(PRODUCT_ID_OK, "name", 1, "mock-address")));
+    when(compositeIntegration.getRecommendationsForProducts(anyList()))
+        .thenReturn(Flux.just(new Recommendation(PRODUCT_ID_OK, 1, "author", 1, "content",
+            "mock-address")));
+    when(compositeIntegration.getReviewsForProducts(anyList()))
+        .thenReturn(Flux.just(new Review(PRODUCT_ID_OK, 1, "author", "subject", "content",
+            "mock-address")));
+
+    when(compositeIntegration.getProduct(eq(PRODUCT_ID_SLOW_SECTIONS), anyInt(), anyInt()))
+        .thenReturn(Mono.just(new Product(PRODUCT_ID_SLOW_SECTIONS, "name", 1, "mock-address")));
+    when(compositeIntegration.getRecommendations(PRODUCT_ID_SLOW_SECTIONS))
+        .thenReturn(Flux.just(new Recommendation(PRODUCT_ID_SLOW_SECTIONS, 1, "author", 1,
+            "content", "mock-address")).delayElements(Duration.ofSeconds(2)));
+    when(compositeIntegration.getReviews(PRODUCT_ID_SLOW_SECTIONS))
+        .thenReturn(Flux.just(new Review(PRODUCT_ID_SLOW_SECTIONS, 1, "author", "subject",
+            "content", "mock-address")).delayElements(Duration.ofSeconds(2)));
+
+    when(compositeIntegration.getProducts(List.of(PRODUCT_ID_BATCH_DEGRADED)))
+        .thenReturn(Flux.just(new Product(PRODUCT_ID_BATCH_DEGRADED, "name", 1, "mock-address")));
+    when(compositeIntegration.getReviewsForProducts(List.of(PRODUCT_ID_BATCH_DEGRADED)))
+        .thenReturn(Flux.error(new RuntimeException("review-service unavailable")));
+
+    CallNotPermittedException circuitOpen = CallNotPermittedException
+        .createCallNotPermittedException(CircuitBreaker.ofDefaults("product"));
+    when(compositeIntegration.getProduct(eq(PRODUCT_ID_STALE), anyInt(), anyInt()))
+        .thenReturn(Mono.just(new Product(PRODUCT_ID_STALE, "name", 1, "mock-address")))
+        .thenReturn(Mono.error(circuitOpen));
+    when(compositeIntegration.getRecommendations(PRODUCT_ID_STALE)).thenReturn(Flux.empty());
+    when(compositeIntegration.getReviews(PRODUCT_ID_STALE)).thenReturn(Flux.empty());
+    when(compositeIntegration.getProduct(eq(PRODUCT_ID_DELETED), anyInt(), anyInt()))
+        .thenReturn(Mono.just(new Product(PRODUCT_ID_DELETED, "name", 1, "mock-address")))
+        .thenReturn(Mono.error(circuitOpen));
+    when(compositeIntegration.getRecommendations(PRODUCT_ID_DELETED)).thenReturn(Flux.empty());
+    when(compositeIntegration.getReviews(PRODUCT_ID_DELETED)).thenReturn(Flux.empty());
+    when(compositeIntegration.getProduct(eq(PRODUCT_ID_UNAVAILABLE), anyInt(), anyInt()))
+        .thenReturn(Mono.error(circuitOpen));
+    when(compositeIntegration.getRecommendations(PRODUCT_ID_UNAVAILABLE)).thenReturn(Flux.empty());
+    when(compositeIntegration.getReviews(PRODUCT_ID_UNAVAILABLE)).thenReturn(Flux.empty());
+
+    when(compositeIntegration.getProduct(eq(PRODUCT_ID_FIELDS), anyInt(), anyInt()))
+        .thenReturn(Mono.just(new Product(PRODUCT_ID_FIELDS, "name", 1, "mock-address")));
+    when(compositeIntegration.getReviews(PRODUCT_ID_FIELDS))
+        .thenReturn(Flux.just(new Review(PRODUCT_ID_FIELDS, 1, "author", "subject", "content",
+            "mock-address")));
+
+    when(compositeIntegration.getProduct(eq(PRODUCT_ID_DEGRADED), anyInt(), anyInt()))
+        .thenReturn(Mono.just(new Product(PRODUCT_ID_DEGRADED, "name", 1, "mock-address")));
+    when(compositeIntegration.getRecommendations(PRODUCT_ID_DEGRADED))
+        .thenReturn(Flux.error(new RuntimeException("recommendation-service unavailable")));
+    when(compositeIntegration.getReviews(PRODUCT_ID_DEGRADED)).thenReturn(Flux.empty());
+
     when(compositeIntegration.getProduct(eq(PRODUCT_ID_NOT_FOUND), anyInt(), anyInt()))
         .thenThrow(new NotFoundException("NOT FOUND: " + PRODUCT_ID_NOT_FOUND));
 
@@ -81,6 +178,19 @@ class ProductCompositeServiceApplicationTests {
         .jsonPath("$.reviews.length()").isEqualTo(1);
   }
 
+  @Test
+  void getProductRecordsStageTimers() {
+    getAndVerifyProduct(PRODUCT_ID_OK, OK);
+
+    for (String stage : new String[]{"security-context", "product", "aggregate", "serialization"}) {
+      Timer timer = meterRegistry.find("composite.stage")
+          .tags("stage", stage, "outcome", "ok")
+          .timer();
+      assertThat(timer).as(stage).isNotNull();
+      assertThat(timer.count()).as(stage).isPositive();
+    }
+  }
+
   @Test
   void getProductNotFound() {
     getAndVerifyProduct(PRODUCT_ID_NOT_FOUND, NOT_FOUND)
@@ -95,6 +205,175 @@ class ProductCompositeServiceApplicationTests {
         .jsonPath("$.message").isEqualTo("INVALID: " + PRODUCT_ID_INVALID);
   }
 
+  @Test
+  void streamProductById() {
+    client.get()
+        .uri("/product-composite/" + PRODUCT_ID_OK + "/stream")
+        .accept(APPLICATION_NDJSON)
+        .exchange()
+        .expectStatus().isEqualTo(OK)
+        .expectHeader().contentType(APPLICATION_NDJSON)
+        .expectBodyList(String.class)
+        .hasSize(3)
+        .value(parts -> assertThat(parts.get(0)).contains("\"type\":\"PRODUCT\""));
+  }
+
+  @Test
+  void getProductsByIds() {
+    client.get()
+        .uri("/product-composite?ids=" + PRODUCT_ID_OK + "," + PRODUCT_ID_NOT_FOUND)
+        .accept(APPLICATION_JSON)
+        .exchange()
+        .expectStatus().isEqualTo(OK)
+        .expectHeader().contentType(APPLICATION_JSON)
+        .expectBody()
+        .jsonPath("$.length()").isEqualTo(1)
+        .jsonPath("$[0].productId").isEqualTo(PRODUCT_ID_OK)
+        .jsonPath("$[0].recommendations.length()").isEqualTo(1)
+        .jsonPath("$[0].reviews.length()").isEqualTo(1);
+  }
+
+  @Test
+  void leaveOutSectionsAfterSoftDeadline() {
+    for (int i = 0; i < 2; i++) {
+      getAndVerifyProduct(PRODUCT_ID_SLOW_SECTIONS, OK)
+          .jsonPath("$.productId").isEqualTo(PRODUCT_ID_SLOW_SECTIONS)
+          .jsonPath("$.recommendations").doesNotExist()
+          .jsonPath("$.reviews").doesNotExist()
+          .jsonPath("$.missingSections.length()").isEqualTo(2)
+          .jsonPath("$.missingSections[0]").isEqualTo("recommendations")
+          .jsonPath("$.missingSections[1]").isEqualTo("reviews");
+    }
+
+    // Partial responses are not cached
+    verify(compositeIntegration, times(2))
+        .getProduct(eq(PRODUCT_ID_SLOW_SECTIONS), anyInt(), anyInt());
+  }
+
+  @Test
+  void getProductsByIdsWithFailedSectionIsNotCached() {
+    for (int i = 0; i < 2; i++) {
+      client.get()
+          .uri("/product-composite?ids=" + PRODUCT_ID_BATCH_DEGRADED)
+          .accept(APPLICATION_JSON)
+          .exchange()
+          .expectStatus().isEqualTo(OK)
+          .expectBody()
+          .jsonPath("$[0].productId").isEqualTo(PRODUCT_ID_BATCH_DEGRADED)
+          .jsonPath("$[0].reviews").doesNotExist()
+          .jsonPath("$[0].missingSections[0]").isEqualTo("reviews");
+    }
+
+    verify(compositeIntegration, times(2)).getProducts(List.of(PRODUCT_ID_BATCH_DEGRADED));
+  }
+
+  @Test
+  void getProductWithFields() {
+    client.get()
+        .uri("/product-composite/" + PRODUCT_ID_FIELDS + "?fields=reviews")
+        .accept(APPLICATION_JSON)
+        .exchange()
+        .expectStatus().isEqualTo(OK)
+        .expectBody()
+        .jsonPath("$.productId").isEqualTo(PRODUCT_ID_FIELDS)
+        .jsonPath("$.name").isEqualTo("name")
+        .jsonPath("$.reviews.length()").isEqualTo(1)
+        .jsonPath("$.recommendations").doesNotExist()
+        .jsonPath("$.serviceAddress").doesNotExist();
+
+    verify(compositeIntegration, never()).getRecommendations(PRODUCT_ID_FIELDS);
+  }
+
+  @Test
+  void getProductWithInvalidFields() {
+    client.get()
+        .uri("/product-composite/" + PRODUCT_ID_OK + "?fields=price")
+        .accept(APPLICATION_JSON)
+        .exchange()
+        .expectStatus().isEqualTo(UNPROCESSABLE_ENTITY)
+        .expectBody()
+        .jsonPath("$.message").isEqualTo(
+            "Invalid field: price, valid are [recommendations, reviews, serviceAddress]");
+  }
+
+  @Test
+  void getProductFromCache() {
+    getAndVerifyProduct(PRODUCT_ID_CACHED, OK)
+        .jsonPath("$.productId").isEqualTo(PRODUCT_ID_CACHED);
+    getAndVerifyProduct(PRODUCT_ID_CACHED, OK)
+        .jsonPath("$.productId").isEqualTo(PRODUCT_ID_CACHED);
+
+    verify(compositeIntegration, times(1)).getProduct(eq(PRODUCT_ID_CACHED), anyInt(), anyInt());
+
+    sinks.inputReviews().send(new GenericMessage<>(new Event<>(DELETE, PRODUCT_ID_CACHED, null)));
+    getAndVerifyProduct(PRODUCT_ID_CACHED, OK)
+        .jsonPath("$.productId").isEqualTo(PRODUCT_ID_CACHED);
+
+    verify(compositeIntegration, times(2)).getProduct(eq(PRODUCT_ID_CACHED), anyInt(), anyInt());
+  }
+
+  @Test
+  void invalidationOnlyDropsItsProduct() {
+    long generation = cache.generation(PRODUCT_ID_OK);
+    ProductAggregate aggregate = new ProductAggregate(PRODUCT_ID_OK, "name", 1, null, null, null,
+        null);
+
+    sinks.inputProducts().send(new GenericMessage<>(new Event<>(DELETE, PRODUCT_ID_CACHED, null)));
+    cache.put(PRODUCT_ID_OK, aggregate, generation);
+    assertThat(cache.get(PRODUCT_ID_OK)).isSameAs(aggregate);
+
+    sinks.inputProducts().send(new GenericMessage<>(new Event<>(DELETE, PRODUCT_ID_OK, null)));
+    assertThat(cache.get(PRODUCT_ID_OK)).isNull();
+    cache.put(PRODUCT_ID_OK, aggregate, generation);
+    assertThat(cache.get(PRODUCT_ID_OK)).isNull();
+  }
+
+  @Test
+  void failedSectionIsMissingAndNotCached() {
+    getAndVerifyProduct(PRODUCT_ID_DEGRADED, OK)
+        .jsonPath("$.productId").isEqualTo(PRODUCT_ID_DEGRADED)
+        .jsonPath("$.recommendations").doesNotExist()
+        .jsonPath("$.reviews.length()").isEqualTo(0)
+        .jsonPath("$.missingSections[0]").isEqualTo("recommendations");
+    getAndVerifyProduct(PRODUCT_ID_DEGRADED, OK);
+
+    verify(compositeIntegration, times(2))
+        .getProduct(eq(PRODUCT_ID_DEGRADED), anyInt(), anyInt());
+  }
+
+  @Test
+  void getStaleProductWhenCircuitOpen() {
+    getAndVerifyProduct(PRODUCT_ID_STALE, OK)
+        .jsonPath("$.name").isEqualTo("name");
+
+    cache.invalidate(PRODUCT_ID_STALE);
+    client.get()
+        .uri("/product-composite/" + PRODUCT_ID_STALE)
+        .accept(APPLICATION_JSON)
+        .exchange()
+        .expectStatus().isEqualTo(OK)
+        .expectHeader().exists(HttpHeaders.AGE)
+        .expectBody()
+        .jsonPath("$.productId").isEqualTo(PRODUCT_ID_STALE)
+        .jsonPath("$.name").isEqualTo("name");
+  }
+
+  @Test
+  void noStaleProductAfterDelete() {
+    getAndVerifyProduct(PRODUCT_ID_DELETED, OK);
+
+    sinks.inputProducts()
+        .send(new GenericMessage<>(new Event<>(DELETE, PRODUCT_ID_DELETED, null)));
+
+    getAndVerifyProduct(PRODUCT_ID_DELETED, SERVICE_UNAVAILABLE);
+  }
+
+  @Test
+  void getProductUnavailableWhenCircuitOpen() {
+    getAndVerifyProduct(PRODUCT_ID_UNAVAILABLE, SERVICE_UNAVAILABLE)
+        .jsonPath("$.path").isEqualTo("/product-composite/" + PRODUCT_ID_UNAVAILABLE);
+  }
+
   private WebTestClient.BodyContentSpec getAndVerifyProduct(
       int productId,
       HttpStatus expectedStatus
@@ -0,0 +1,58 @@
+package com.example.microservices.composite.product;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.microservices.composite.product.services.RequestBudget;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class RequestBudgetTests {
+
+  private final AtomicLong now = new AtomicLong();
+
+  @Test
+  void allowRatioOfRegularCalls() {
+    RequestBudget budget = new RequestBudget(0.1, 0, Duration.ofSeconds(10), now::get);
+
+    for (int i = 0; i < 20; i++) {
+      budget.deposit();
+    }
+
+    assertThat(budget.tryWithdraw()).isTrue();
+    assertThat(budget.tryWithdraw()).isTrue();
+    assertThat(budget.tryWithdraw()).isFalse();
+  }
+
+  @Test
+  void depositsExpireAfterWindow() {
+    RequestBudget budget = new RequestBudget(0.5, 0, Duration.ofSeconds(10), now::get);
+    for (int i = 0; i < 4; i++) {
+      budget.deposit();
+    }
+    assertThat(budget.getTokens()).isEqualTo(2);
+
+    advance(Duration.ofSeconds(11));
+
+    assertThat(budget.getTokens()).isZero();
+    assertThat(budget.tryWithdraw()).isFalse();
+  }
+
+  @Test
+  void refillReserveAfterWindow() {
+    RequestBudget budget = new RequestBudget(0, 2, Duration.ofSeconds(10), now::get);
+    assertThat(budget.tryWithdraw()).isTrue();
+    assertThat(budget.tryWithdraw()).isTrue();
+    assertThat(budget.tryWithdraw()).isFalse();
+
+    advance(Duration.ofSeconds(5));
+    assertThat(budget.tryWithdraw()).isFalse();
+
+    advance(Duration.ofSeconds(6));
+    assertThat(budget.tryWithdraw()).isTrue();
+  }
+
+  private void advance(Duration duration) {
+    now.addAndGet(duration.toNanos());
+  }
+}
@@ -0,0 +1,91 @@
+package com.example.microservices.composite.product;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.microservices.composite.product.services.RequestCoalescer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.test.publisher.TestPublisher;
+
+class RequestCoalescerTests {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final RequestCoalescer coalescer = new RequestCoalescer(meterRegistry);
+
+  private final AtomicInteger calls = new AtomicInteger();
+
+  @Test
+  void concurrentCallersShareOneCall() {
+    TestPublisher<String> backend = TestPublisher.create();
+
+    Mono<String> first = coalescer.coalesce(1, () -> call(backend.mono()));
+    Mono<String> second = coalescer.coalesce(1, () -> call(backend.mono()));
+
+    StepVerifier.create(Mono.zip(first, second))
+        .then(() -> backend.emit("aggregate"))
+        .assertNext(results -> {
+          assertThat(results.getT1()).isEqualTo("aggregate");
+          assertThat(results.getT2()).isEqualTo("aggregate");
+        })
+        .verifyComplete();
+
+    assertThat(calls).hasValue(1);
+    assertThat(coalescedCalls()).isEqualTo(1);
+    assertThat(inFlight()).isZero();
+  }
+
+  @Test
+  void errorReleasesKey() {
+    StepVerifier.create(coalescer.coalesce(1, () -> call(Mono.error(new RuntimeException()))))
+        .verifyError(RuntimeException.class);
+    assertThat(inFlight()).isZero();
+
+    StepVerifier.create(coalescer.coalesce(1, () -> call(Mono.just("aggregate"))))
+        .expectNext("aggregate")
+        .verifyComplete();
+    assertThat(calls).hasValue(2);
+  }
+
+  @Test
+  void cancellationReleasesKey() {
+    AtomicBoolean cancelled = new AtomicBoolean();
+    Mono<String> backend = Mono.<String>never().doOnCancel(() -> cancelled.set(true));
+
+    Disposable first = coalescer.coalesce(1, () -> call(backend)).subscribe();
+    Disposable second = coalescer.coalesce(1, () -> call(backend)).subscribe();
+
+    // The call goes on as long as one caller is still waiting for it
+    first.dispose();
+    assertThat(cancelled).isFalse();
+    assertThat(inFlight()).isEqualTo(1);
+
+    second.dispose();
+    assertThat(cancelled).isTrue();
+    assertThat(inFlight()).isZero();
+
+    StepVerifier.create(coalescer.coalesce(1, () -> call(Mono.just("aggregate"))))
+        .expectNext("aggregate")
+        .verifyComplete();
+    assertThat(calls).hasValue(2);
+  }
+
+  private Mono<String> call(Mono<String> backend) {
+    calls.incrementAndGet();
+    return backend;
+  }
+
+  private double coalescedCalls() {
+    return meterRegistry.get("composite.coalescing.calls").tag("type", "coalesced").counter()
+        .count();
+  }
+
+  private double inFlight() {
+    return meterRegistry.get("composite.coalescing.in-flight").gauge().value();
+  }
+}
@@ -0,0 +1,83 @@
+package com.example.microservices.composite.product;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.microservices.composite.product.services.StageTimers;
+import com.example.microservices.composite.product.services.TimedJackson2JsonEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class TimedJackson2JsonEncoderTests {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final TimedJackson2JsonEncoder encoder =
+      new TimedJackson2JsonEncoder(new ObjectMapper(), new StageTimers(meterRegistry));
+
+  @Test
+  void timeMonoValue() {
+    String json = encode(Mono.just(part(1)), MediaType.APPLICATION_JSON);
+
+    assertThat(json).isEqualTo("{\"productId\":1}");
+    assertThat(serializations()).isEqualTo(1);
+  }
+
+  @Test
+  void timeEachStreamedElement() {
+    String json = encode(Flux.just(part(1), part(2), part(3)), MediaType.APPLICATION_NDJSON);
+
+    assertThat(json).isEqualTo("{\"productId\":1}\n{\"productId\":2}\n{\"productId\":3}\n");
+    assertThat(serializations()).isEqualTo(3);
+  }
+
+  @Test
+  void timeFluxWrittenAsJsonArray() {
+    String json = encode(Flux.just(part(1), part(2), part(3)), MediaType.APPLICATION_JSON);
+
+    assertThat(json).isEqualTo("[{\"productId\":1},{\"productId\":2},{\"productId\":3}]");
+    assertThat(serializations()).isPositive();
+  }
+
+  @Test
+  void timeNothingForEmptyFlux() {
+    encode(Flux.empty(), MediaType.APPLICATION_NDJSON);
+
+    assertThat(meterRegistry.find("composite.stage").tag("stage", "serialization").timer())
+        .isNull();
+  }
+
+  private String encode(Publisher<?> values, MediaType mediaType) {
+    Flux<DataBuffer> buffers = encoder.encode(values, DefaultDataBufferFactory.sharedInstance,
+        ResolvableType.forClass(Map.class), mediaType, Map.of());
+    return DataBufferUtils.join(buffers)
+        .map(buffer -> {
+          String json = buffer.toString(UTF_8);
+          DataBufferUtils.release(buffer);
+          return json;
+        })
+        .defaultIfEmpty("")
+        .block();
+  }
+
+  private static Map<String, Object> part(int productId) {
+    return Map.of("productId", productId);
+  }
+
+  private long serializations() {
+    return meterRegistry.get("composite.stage")
+        .tags("stage", "serialization", "outcome", StageTimers.OK)
+        .timer()
+        .count();
+  }
+}
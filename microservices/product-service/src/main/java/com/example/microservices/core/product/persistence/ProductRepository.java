@@ -1,9 +1,16 @@
 package com.example.microservices.core.product.persistence;
 
+import java.util.Collection;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface ProductRepository extends ReactiveCrudRepository<ProductEntity, String> {
 
   Mono<ProductEntity> findByProductId(int productId);
+
+  Flux<ProductEntity> findByProductIdIn(Collection<Integer> productIds);
+
+  // One delete command, returns the number of deleted products
+  Mono<Long> deleteByProductId(int productId);
 }
@@ -0,0 +1,108 @@
+package com.example.microservices.core.product.services;
+
+import com.example.api.core.product.Product;
+import com.example.api.event.Event;
+import com.example.microservices.core.product.persistence.ProductEntity;
+import com.example.util.exceptions.EventProcessingException;
+import com.example.util.exceptions.InvalidInputException;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+// Writes a batch of product events with one unordered bulk write, creates as inserts and deletes
+// by productId. An unordered bulk write may apply its writes in any order, so the events of a
+// batch must be for distinct products. Returns the failed events by their index in the batch.
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ProductBulkWriter {
+
+  private final ReactiveMongoOperations mongoOperations;
+  private final ProductMapper mapper;
+
+  public Mono<Map<Integer, Throwable>> write(List<Event<Integer, Product>> events) {
+    Map<Integer, Throwable> failures = new HashMap<>();
+    List<WriteModel<Document>> writes = new ArrayList<>();
+    List<Integer> eventOfWrite = new ArrayList<>();
+
+    for (int i = 0; i < events.size(); i++) {
+      Event<Integer, Product> event = events.get(i);
+      switch (event.getEventType()) {
+        case CREATE:
+          Product product = event.getData();
+          if (product.getProductId() < 1) {
+            failures.put(i, new InvalidInputException(
+                "Invalid productId: " + product.getProductId()));
+            continue;
+          }
+          writes.add(new InsertOneModel<>(toDocument(mapper.apiToEntity(product))));
+          break;
+
+        case DELETE:
+          writes.add(new DeleteManyModel<>(Filters.eq("productId", event.getKey())));
+          break;
+
+        default:
+          failures.put(i, new EventProcessingException("Incorrect event type: "
+              + event.getEventType() + ", expected a CREATE or DELETE event"));
+          continue;
+      }
+      eventOfWrite.add(i);
+    }
+
+    if (writes.isEmpty()) {
+      return Mono.just(failures);
+    }
+
+    return mongoOperations.getCollection(mongoOperations.getCollectionName(ProductEntity.class))
+        .flatMap(collection ->
+            Mono.from(collection.bulkWrite(writes, new BulkWriteOptions().ordered(false))))
+        .doOnNext(result -> log.debug("Bulk wrote {} events, {} inserted, {} deleted",
+            writes.size(), result.getInsertedCount(), result.getDeletedCount()))
+        .thenReturn(failures)
+        // The writes without an error were applied, only the failed ones are mapped to their event
+        .onErrorResume(ProductBulkWriter::hasWriteErrorsOnly, ex -> {
+          for (BulkWriteError error : ((MongoBulkWriteException) ex).getWriteErrors()) {
+            int index = eventOfWrite.get(error.getIndex());
+            failures.put(index, writeFailure(events.get(index), error));
+          }
+          return Mono.just(failures);
+        });
+  }
+
+  // Written like the repository would, with the initial version of a new entity
+  private Document toDocument(ProductEntity entity) {
+    entity.setVersion(0);
+    Document document = new Document();
+    mongoOperations.getConverter().write(entity, document);
+    return document;
+  }
+
+  private Throwable writeFailure(Event<Integer, Product> event, BulkWriteError error) {
+    if (ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY) {
+      return new InvalidInputException("Duplicate key, Product Id: " + event.getKey());
+    }
+    return new EventProcessingException("Failed to write product event: " + error.getMessage());
+  }
+
+  // A write concern error leaves it open which writes were applied, the whole batch is failed then
+  private static boolean hasWriteErrorsOnly(Throwable ex) {
+    return ex instanceof MongoBulkWriteException
+        && ((MongoBulkWriteException) ex).getWriteConcernError() == null;
+  }
+}
@@ -1,5 +1,7 @@
 package com.example.microservices.core.product.services;
 
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 import static reactor.core.publisher.Mono.error;
 
 import com.example.api.core.product.Product;
@@ -8,12 +10,18 @@ import com.example.microservices.core.product.persistence.ProductEntity;
 import com.example.microservices.core.product.persistence.ProductRepository;
 import com.example.util.exceptions.InvalidInputException;
 import com.example.util.exceptions.NotFoundException;
+import com.example.util.http.Deadline;
+import com.example.util.http.FaultInjector;
 import com.example.util.http.ServiceUtil;
-import java.util.Random;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @RestController
@@ -23,10 +31,12 @@ public class ProductServiceImpl implements ProductService {
 
   private final ServiceUtil serviceUtil;
   private final ProductRepository repository;
+  private final ReactiveMongoOperations mongoOperations;
+  private final FaultInjector faultInjector;
   private final ProductMapper mapper;
 
   @Override
-  public Product createProduct(Product body) {
+  public Mono<Product> createProduct(Product body) {
     if (body.getProductId() < 1) {
       throw new InvalidInputException("Invalid productId: " + body.getProductId());
     }
@@ -38,8 +48,7 @@ public class ProductServiceImpl implements ProductService {
             new InvalidInputException(
                 "Duplicate key, Product Id: " + body.getProductId()
             ))
-        .map(mapper::entityToApi)
-        .block();
+        .map(mapper::entityToApi);
   }
 
   @Override
@@ -48,15 +57,11 @@ public class ProductServiceImpl implements ProductService {
       throw new InvalidInputException("Invalid productId: " + productId);
     }
 
-    if (delay > 0) {
-      simulateDelay(delay);
-    }
-
-    if (faultPercent > 0) {
-      throwErrorIfBadLuck(faultPercent);
-    }
+    // Delays are waited for on a timer, the event loop is free to serve other requests meanwhile
+    Mono<ProductEntity> entity =
+        Mono.deferContextual(context -> findByProductId(productId, Deadline.from(context)));
 
-    return repository.findByProductId(productId)
+    return faultInjector.apply(entity, Duration.ofSeconds(delay), faultPercent)
         .log()
         .switchIfEmpty(error(
             new NotFoundException("No product found for productId: " + productId)
@@ -69,49 +74,58 @@ public class ProductServiceImpl implements ProductService {
   }
 
   @Override
-  public void deleteProduct(int productId) {
-    if (productId < 1) {
-      throw new InvalidInputException("Invalid productId: " + productId);
+  public Flux<Product> getProducts(List<Integer> productIds) {
+    if (productIds.isEmpty()) {
+      throw new InvalidInputException("No productIds given");
     }
+    productIds.stream()
+        .filter(productId -> productId < 1)
+        .findFirst()
+        .ifPresent(productId -> {
+          throw new InvalidInputException("Invalid productId: " + productId);
+        });
 
-    log.debug("deleteProduct: tries to delete an entity with productId: {}", productId);
-
-    repository.findByProductId(productId)
+    return Flux.deferContextual(context -> findByProductIdIn(productIds, Deadline.from(context)))
         .log()
-        .map(repository::delete)
-        .flatMap(e -> e)
-        .block();
+        .map(mapper::entityToApi)
+        .map(e -> {
+          e.setServiceAddress(serviceUtil.getServiceAddress());
+          return e;
+        });
   }
 
-  private void simulateDelay(int delay) {
-    log.debug("Sleeping for {} seconds...", delay);
-
-    try {
-      Thread.sleep(delay * 1000);
-    } catch (InterruptedException e) {
+  @Override
+  public Mono<Void> deleteProduct(int productId) {
+    if (productId < 1) {
+      throw new InvalidInputException("Invalid productId: " + productId);
     }
 
-    log.debug("Moving on...");
-  }
-
-  private void throwErrorIfBadLuck(int faultPercent) {
-    int randomThreshold = getRandomNumber(1, 1000);
+    log.debug("deleteProduct: tries to delete an entity with productId: {}", productId);
 
-    if (faultPercent < randomThreshold) {
-      log.debug("We got lucky, no error occurred, {} < {}", faultPercent, randomThreshold);
-    } else {
-      log.debug("Bad luck, an error occurred, {} >= {}", faultPercent, randomThreshold);
-      throw new RuntimeException("Something went wrong...");
-    }
+    return repository.deleteByProductId(productId)
+        .doOnNext(deleted -> log.debug("deleteProduct: deleted {} entities", deleted))
+        .then();
   }
 
-  private final Random randomNumberGenerator = new Random();
-
-  private int getRandomNumber(int min, int max) {
-    if (max < min) {
-      throw new RuntimeException("Max must be greater than min");
-    }
+  // The repository methods can't set a maxTime, so queries with a deadline use mongoOperations
+  private Mono<ProductEntity> findByProductId(int productId, Optional<Deadline> deadline) {
+    return deadline
+        .map(d -> mongoOperations.findOne(
+            query(where("productId").is(productId)).maxTime(d.queryTimeLimit()),
+            ProductEntity.class
+        ))
+        .orElseGet(() -> repository.findByProductId(productId));
+  }
 
-    return randomNumberGenerator.nextInt((max - min) + 1) + min;
+  private Flux<ProductEntity> findByProductIdIn(
+      List<Integer> productIds,
+      Optional<Deadline> deadline
+  ) {
+    return deadline
+        .map(d -> mongoOperations.find(
+            query(where("productId").in(productIds)).maxTime(d.queryTimeLimit()),
+            ProductEntity.class
+        ))
+        .orElseGet(() -> repository.findByProductIdIn(productIds));
   }
 }
@@ -0,0 +1,91 @@
+package com.example.microservices.core.product;
+
+import static com.example.api.event.Event.Type.CREATE;
+import static com.example.api.event.Event.Type.DELETE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.api.core.product.Product;
+import com.example.api.event.Event;
+import com.example.microservices.core.product.persistence.ProductRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.GenericMessage;
+import reactor.core.publisher.Mono;
+
+@SpringBootTest(properties = {
+    "app.message-processor.batch.enabled=true",
+    "app.message-processor.batch.maxSize=10",
+    "app.message-processor.batch.maxWaitMs=100"
+})
+class BatchMessageProcessorTests {
+
+  @Autowired
+  private ProductRepository repository;
+
+  @Autowired
+  @Qualifier("messageProcessor-in-0")
+  private MessageChannel input;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @BeforeEach
+  void setupDb() {
+    repository.deleteAll().block();
+  }
+
+  @Test
+  void writeBatch() {
+    double acked = processedMessages("acked");
+
+    sendAndWait(List.of(createEvent(1), createEvent(2), createEvent(3)));
+
+    assertThat(repository.count().block()).isEqualTo(3);
+    assertThat(processedMessages("acked")).isEqualTo(acked + 3);
+  }
+
+  @Test
+  void writeBatchKeepsOrderAndRejectsFailedEvents() {
+    double acked = processedMessages("acked");
+    double rejected = processedMessages("rejected");
+
+    // The second create of product 1 is a duplicate, product 2 is created and then deleted
+    sendAndWait(List.of(createEvent(1), createEvent(2), createEvent(1), deleteEvent(2)));
+
+    assertThat(repository.findByProductId(1).block()).isNotNull();
+    assertThat(repository.findByProductId(2).block()).isNull();
+    assertThat(processedMessages("acked")).isEqualTo(acked + 3);
+    assertThat(processedMessages("rejected")).isEqualTo(rejected + 1);
+  }
+
+  private Event<Integer, Product> createEvent(int productId) {
+    Product product = new Product(productId, "Name " + productId, productId, "SA");
+    return new Event<>(CREATE, productId, product);
+  }
+
+  private Event<Integer, Product> deleteEvent(int productId) {
+    return new Event<>(DELETE, productId, null);
+  }
+
+  // The events are sent at once, to end up in the same batch, and processed asynchronously
+  private void sendAndWait(List<Event<Integer, Product>> events) {
+    double processed = processedMessages("acked") + processedMessages("rejected");
+    events.forEach(event -> input.send(new GenericMessage<>(event)));
+
+    Mono.fromSupplier(() -> processedMessages("acked") + processedMessages("rejected"))
+        .filter(count -> count >= processed + events.size())
+        .repeatWhenEmpty(repeats -> repeats.delayElements(Duration.ofMillis(10)))
+        .block(Duration.ofSeconds(10));
+  }
+
+  private double processedMessages(String result) {
+    return meterRegistry.get("messages.processed").tag("result", result).counter().count();
+  }
+}
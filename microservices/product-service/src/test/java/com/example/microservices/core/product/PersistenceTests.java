@@ -72,6 +72,21 @@ class PersistenceTests {
         .verifyComplete();
   }
 
+  @Test
+  void deleteByProductId() {
+    StepVerifier.create(repository.deleteByProductId(savedEntity.getProductId()))
+        .expectNext(1L)
+        .verifyComplete();
+
+    StepVerifier.create(repository.existsById(savedEntity.getId()))
+        .expectNext(false)
+        .verifyComplete();
+
+    StepVerifier.create(repository.deleteByProductId(savedEntity.getProductId()))
+        .expectNext(0L)
+        .verifyComplete();
+  }
+
   @Test
   void getProductId() {
     StepVerifier.create(repository.findByProductId(savedEntity.getProductId()))
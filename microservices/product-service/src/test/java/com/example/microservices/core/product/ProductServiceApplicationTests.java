@@ -2,10 +2,12 @@ package com.example.microservices.core.product;
 
 import static com.example.api.event.Event.Type.CREATE;
 import static com.example.api.event.Event.Type.DELETE;
+import static com.example.util.http.DeadlineRequests.getWithDeadline;
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.assertj.core.api.Fail.fail;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.GATEWAY_TIMEOUT;
+import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 import static org.springframework.http.HttpStatus.OK;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
@@ -14,17 +16,19 @@ import static org.springframework.http.MediaType.APPLICATION_JSON;
 import com.example.api.core.product.Product;
 import com.example.api.event.Event;
 import com.example.microservices.core.product.persistence.ProductRepository;
-import com.example.util.exceptions.InvalidInputException;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.cloud.stream.messaging.Sink;
 import org.springframework.http.HttpStatus;
-import org.springframework.integration.channel.AbstractMessageChannel;
-import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.support.GenericMessage;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
 
 @SpringBootTest(webEnvironment = RANDOM_PORT)
 class ProductServiceApplicationTests {
@@ -36,13 +40,14 @@ class ProductServiceApplicationTests {
   private ProductRepository repository;
 
   @Autowired
-  private Sink channels;
+  @Qualifier("messageProcessor-in-0")
+  private MessageChannel input;
 
-  private AbstractMessageChannel input = null;
+  @Autowired
+  private MeterRegistry meterRegistry;
 
   @BeforeEach
   void setupDb() {
-    input = (AbstractMessageChannel) channels.input();
     repository.deleteAll().block();
   }
 
@@ -62,6 +67,22 @@ class ProductServiceApplicationTests {
         .jsonPath("$.productId").isEqualTo(productId);
   }
 
+  @Test
+  void getProductsByIds() {
+    sendCreateProductEvent(1);
+    sendCreateProductEvent(2);
+    sendCreateProductEvent(3);
+
+    client.get()
+        .uri("/product?productIds=1,3,4")
+        .accept(APPLICATION_JSON)
+        .exchange()
+        .expectStatus().isEqualTo(OK)
+        .expectHeader().contentType(APPLICATION_JSON)
+        .expectBody()
+        .jsonPath("$.length()").isEqualTo(2);
+  }
+
   @Test
   void duplicateError() {
     int productId = 1;
@@ -72,17 +93,10 @@ class ProductServiceApplicationTests {
 
     assertThat(repository.findByProductId(productId).block()).isNotNull();
 
-    try {
-      sendCreateProductEvent(productId);
-      fail("Expected a MessagingException here!");
-    } catch (MessagingException me) {
-      if (me.getCause() instanceof InvalidInputException) {
-        InvalidInputException iie = (InvalidInputException) me.getCause();
-        assertThat(iie.getMessage()).isEqualTo("Duplicate key, Product Id: " + productId);
-      } else {
-        fail("Expected a InvalidInputException as the root cause!");
-      }
-    }
+    // The duplicate is rejected, to be dead lettered, instead of failing the sender
+    double rejected = processedMessages("rejected");
+    sendCreateProductEvent(productId);
+    assertThat(processedMessages("rejected")).isEqualTo(rejected + 1);
   }
 
   @Test
@@ -98,6 +112,19 @@ class ProductServiceApplicationTests {
     sendDeleteProductEvent(productId);
   }
 
+  @Test
+  void getProductWithDeadline() {
+    int productId = 1;
+    sendCreateProductEvent(productId);
+
+    getWithDeadline(client, "/product/" + productId, 5000, OK)
+        .jsonPath("$.productId").isEqualTo(productId);
+
+    // The caller already gave up, the database is not queried
+    getWithDeadline(client, "/product/" + productId, 0, GATEWAY_TIMEOUT)
+        .jsonPath("$.path").isEqualTo("/product/" + productId);
+  }
+
   @Test
   void getProductInvalidParameterString() {
     getAndVerifyProduct("/no-integer", BAD_REQUEST)
@@ -105,6 +132,18 @@ class ProductServiceApplicationTests {
         .jsonPath("$.message").isEqualTo("Type mismatch.");
   }
 
+  @Test
+  void getProductWithInjectedFaults() {
+    int productId = 1;
+    sendCreateProductEvent(productId);
+
+    getAndVerifyProduct("/" + productId + "?delay=1", OK)
+        .jsonPath("$.productId").isEqualTo(productId);
+
+    getAndVerifyProduct("/" + productId + "?faultPercent=100", INTERNAL_SERVER_ERROR)
+        .jsonPath("$.message").isEqualTo("Something went wrong...");
+  }
+
   @Test
   void getProductNotFound() {
     int productIdNotFound = 13;
@@ -146,11 +185,26 @@ class ProductServiceApplicationTests {
   private void sendCreateProductEvent(int productId) {
     Product product = new Product(productId, "Name " + productId, productId, "SA");
     Event<Integer, Product> event = new Event<>(CREATE, productId, product);
-    input.send(new GenericMessage<>(event));
+    sendAndWait(new GenericMessage<>(event));
   }
 
   private void sendDeleteProductEvent(int productId) {
     Event<Integer, Product> event = new Event<>(DELETE, productId, null);
-    input.send(new GenericMessage<>(event));
+    sendAndWait(new GenericMessage<>(event));
+  }
+
+  // Messages are processed asynchronously, so a send waits until the message was acked or rejected
+  private void sendAndWait(Message<?> message) {
+    double processed = processedMessages("acked") + processedMessages("rejected");
+    input.send(message);
+
+    Mono.fromSupplier(() -> processedMessages("acked") + processedMessages("rejected"))
+        .filter(count -> count > processed)
+        .repeatWhenEmpty(repeats -> repeats.delayElements(Duration.ofMillis(10)))
+        .block(Duration.ofSeconds(10));
+  }
+
+  private double processedMessages(String result) {
+    return meterRegistry.get("messages.processed").tag("result", result).counter().count();
   }
 }
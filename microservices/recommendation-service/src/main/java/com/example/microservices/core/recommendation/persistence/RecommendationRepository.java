@@ -1,10 +1,17 @@
 package com.example.microservices.core.recommendation.persistence;
 
+import java.util.Collection;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 public interface RecommendationRepository extends
     ReactiveCrudRepository<RecommendationEntity, String> {
 
   Flux<RecommendationEntity> findByProductId(int productId);
+
+  Flux<RecommendationEntity> findByProductIdIn(Collection<Integer> productIds);
+
+  // One delete command, returns the number of deleted recommendations
+  Mono<Long> deleteByProductId(int productId);
 }
@@ -0,0 +1,94 @@
+package com.example.microservices.core.recommendation.services;
+
+import com.example.api.core.recommendation.Recommendation;
+import com.example.api.core.recommendation.RecommendationService;
+import com.example.api.event.Event;
+import com.example.util.exceptions.EventProcessingException;
+import com.example.util.messaging.DeadLetterPublisher;
+import com.example.util.messaging.ReactiveMessageConsumer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@Configuration
+@RequiredArgsConstructor
+@Slf4j
+public class MessageProcessorConfig {
+
+  private final RecommendationService recommendationService;
+  private final RecommendationBulkWriter bulkWriter;
+  private final MeterRegistry meterRegistry;
+  private final StreamBridge streamBridge;
+  private final ObjectMapper mapper;
+
+  @Bean
+  public Consumer<Flux<Message<Event<Integer, List<Recommendation>>>>> messageProcessor(
+      @Value("${app.message-processor.maxInFlight:16}") int maxInFlight,
+      @Value("${app.message-processor.batch.enabled:false}") boolean batchEnabled,
+      @Value("${app.message-processor.batch.maxSize:100}") int batchMaxSize,
+      @Value("${app.message-processor.batch.maxWaitMs:50}") long batchMaxWaitMs,
+      @Value("${app.message-processor.retry.maxAttempts:3}") int retryMaxAttempts,
+      @Value("${app.message-processor.retry.backoffMs:500}") long retryBackoffMs,
+      @Value("${spring.cloud.stream.bindings.messageProcessor-in-0.group:recommendationsGroup}")
+      String group
+  ) {
+    ReactiveMessageConsumer<Event<Integer, List<Recommendation>>> consumer =
+        new ReactiveMessageConsumer<>(
+            "recommendations",
+            maxInFlight,
+            retryMaxAttempts,
+            Duration.ofMillis(retryBackoffMs),
+            new DeadLetterPublisher(streamBridge, mapper, group),
+            meterRegistry,
+            Event::getKey,
+            this::process
+        );
+
+    // Catching up on a backlog, events are written at the pace of bulk writes, not single writes
+    if (batchEnabled) {
+      log.info("Writes events in bulk, up to {} at a time", batchMaxSize);
+      return messages -> consumer.consumeInBatches(
+          messages, batchMaxSize, Duration.ofMillis(batchMaxWaitMs), bulkWriter::write);
+    }
+    return consumer::consume;
+  }
+
+  private Mono<Void> process(Event<Integer, List<Recommendation>> event) {
+    log.info("Process message created at {}...", event.getEventCreatedAt());
+
+    Mono<Void> result;
+    switch (event.getEventType()) {
+      case CREATE:
+        List<Recommendation> recommendations = event.getData();
+        log.info("Create {} recommendations with ProductID: {}", recommendations.size(),
+            event.getKey());
+        result = recommendationService.createRecommendations(recommendations).then();
+        break;
+
+      case DELETE:
+        int productId = event.getKey();
+        log.info("Delete recommendations with ProductID: {}", productId);
+        result = recommendationService.deleteRecommendations(productId);
+        break;
+
+      default:
+        String errorMessage =
+            "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
+        log.warn(errorMessage);
+        return Mono.error(new EventProcessingException(errorMessage));
+    }
+
+    return result.doOnSuccess(done -> log.info("Message processing done!"));
+  }
+}
@@ -0,0 +1,120 @@
+package com.example.microservices.core.recommendation.services;
+
+import com.example.api.core.recommendation.Recommendation;
+import com.example.api.event.Event;
+import com.example.microservices.core.recommendation.persistence.RecommendationEntity;
+import com.example.util.exceptions.EventProcessingException;
+import com.example.util.exceptions.InvalidInputException;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+// Writes a batch of recommendation events with one unordered bulk write, each recommendation of a
+// create as an insert and deletes by productId. An unordered bulk write may apply its writes in
+// any order, so the events of a batch must be for distinct products. Returns the failed events by
+// their index in the batch, the other recommendations of a failed create may have been inserted.
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class RecommendationBulkWriter {
+
+  private final ReactiveMongoOperations mongoOperations;
+  private final RecommendationMapper mapper;
+
+  public Mono<Map<Integer, Throwable>> write(List<Event<Integer, List<Recommendation>>> events) {
+    Map<Integer, Throwable> failures = new HashMap<>();
+    List<WriteModel<Document>> writes = new ArrayList<>();
+    List<Integer> eventOfWrite = new ArrayList<>();
+
+    for (int i = 0; i < events.size(); i++) {
+      Event<Integer, List<Recommendation>> event = events.get(i);
+      switch (event.getEventType()) {
+        case CREATE:
+          List<Recommendation> recommendations = event.getData();
+          Optional<Recommendation> invalid = recommendations.stream()
+              .filter(recommendation -> recommendation.getProductId() < 1)
+              .findFirst();
+          if (invalid.isPresent()) {
+            failures.put(i, new InvalidInputException(
+                "Invalid productId: " + invalid.get().getProductId()));
+            break;
+          }
+          for (RecommendationEntity entity : mapper.apiListToEntityList(recommendations)) {
+            writes.add(new InsertOneModel<>(toDocument(entity)));
+            eventOfWrite.add(i);
+          }
+          break;
+
+        case DELETE:
+          writes.add(new DeleteManyModel<>(Filters.eq("productId", event.getKey())));
+          eventOfWrite.add(i);
+          break;
+
+        default:
+          failures.put(i, new EventProcessingException("Incorrect event type: "
+              + event.getEventType() + ", expected a CREATE or DELETE event"));
+      }
+    }
+
+    if (writes.isEmpty()) {
+      return Mono.just(failures);
+    }
+
+    String collectionName = mongoOperations.getCollectionName(RecommendationEntity.class);
+    return mongoOperations.getCollection(collectionName)
+        .flatMap(collection ->
+            Mono.from(collection.bulkWrite(writes, new BulkWriteOptions().ordered(false))))
+        .doOnNext(result -> log.debug("Bulk wrote {} events, {} inserted, {} deleted",
+            events.size(), result.getInsertedCount(), result.getDeletedCount()))
+        .thenReturn(failures)
+        // The writes without an error were applied, only the failed ones are mapped to their event
+        .onErrorResume(RecommendationBulkWriter::hasWriteErrorsOnly, ex -> {
+          for (BulkWriteError error : ((MongoBulkWriteException) ex).getWriteErrors()) {
+            int index = eventOfWrite.get(error.getIndex());
+            failures.putIfAbsent(index, writeFailure(events.get(index), error));
+          }
+          return Mono.just(failures);
+        });
+  }
+
+  // Written like the repository would, with the initial version of a new entity
+  private Document toDocument(RecommendationEntity entity) {
+    entity.setVersion(0);
+    Document document = new Document();
+    mongoOperations.getConverter().write(entity, document);
+    return document;
+  }
+
+  private Throwable writeFailure(
+      Event<Integer, List<Recommendation>> event,
+      BulkWriteError error
+  ) {
+    if (ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY) {
+      return new InvalidInputException("Duplicate key, Product Id: " + event.getKey());
+    }
+    return new EventProcessingException(
+        "Failed to write recommendation event: " + error.getMessage());
+  }
+
+  // A write concern error leaves it open which writes were applied, the whole batch is failed then
+  private static boolean hasWriteErrorsOnly(Throwable ex) {
+    return ex instanceof MongoBulkWriteException
+        && ((MongoBulkWriteException) ex).getWriteConcernError() == null;
+  }
+}
@@ -1,16 +1,28 @@
 package com.example.microservices.core.recommendation.services;
 
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
 import com.example.api.core.recommendation.Recommendation;
 import com.example.api.core.recommendation.RecommendationService;
 import com.example.microservices.core.recommendation.persistence.RecommendationEntity;
 import com.example.microservices.core.recommendation.persistence.RecommendationRepository;
 import com.example.util.exceptions.InvalidInputException;
+import com.example.util.http.Deadline;
+import com.example.util.http.FaultInjector;
 import com.example.util.http.ServiceUtil;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @RestController
 @RequiredArgsConstructor
@@ -18,26 +30,36 @@ import reactor.core.publisher.Flux;
 public class RecommendationServiceImpl implements RecommendationService {
 
   private final RecommendationRepository repository;
+  private final ReactiveMongoOperations mongoOperations;
+  private final FaultInjector faultInjector;
   private final RecommendationMapper mapper;
   private final ServiceUtil serviceUtil;
 
   @Override
-  public Recommendation createRecommendation(Recommendation body) {
-    if (body.getProductId() < 1) {
-      throw new InvalidInputException("Invalid productId: " + body.getProductId());
+  public Flux<Recommendation> createRecommendations(List<Recommendation> body) {
+    body.stream()
+        .filter(recommendation -> recommendation.getProductId() < 1)
+        .findFirst()
+        .ifPresent(recommendation -> {
+          throw new InvalidInputException("Invalid productId: " + recommendation.getProductId());
+        });
+
+    if (body.isEmpty()) {
+      return Flux.empty();
     }
 
-    RecommendationEntity entity = mapper.apiToEntity(body);
-    return repository.save(entity)
-                     .log()
+    // New entities are all written with one insert command
+    List<RecommendationEntity> entities = mapper.apiListToEntityList(body);
+    return repository.saveAll(entities)
                      .onErrorMap(DuplicateKeyException.class, ex ->
                          new InvalidInputException(
-                             "Duplicate key, Product Id: " + body.getProductId()
-                                 + ", Recommendation Id: " + body.getRecommendationId()
+                             "Duplicate key, Product Id: " + body.get(0).getProductId()
+                                 + ", Recommendation Id: " + body.stream()
+                                 .map(r -> String.valueOf(r.getRecommendationId()))
+                                 .collect(Collectors.joining(", "))
                          )
                      )
-                     .map(mapper::entityToApi)
-                     .block();
+                     .map(mapper::entityToApi);
   }
 
   @Override
@@ -46,7 +68,13 @@ public class RecommendationServiceImpl implements RecommendationService {
       throw new InvalidInputException("Invalid productId: " + productId);
     }
 
-    return repository.findByProductId(productId)
+    Flux<RecommendationEntity> entities = Flux.deferContextual(context -> find(
+        where("productId").is(productId),
+        Deadline.from(context),
+        () -> repository.findByProductId(productId)
+    ));
+
+    return faultInjector.apply(entities)
                      .log()
                      .map(mapper::entityToApi)
                      .map(e -> {
@@ -56,7 +84,34 @@ public class RecommendationServiceImpl implements RecommendationService {
   }
 
   @Override
-  public void deleteRecommendations(int productId) {
+  public Flux<Recommendation> getRecommendationsForProducts(List<Integer> productIds) {
+    if (productIds.isEmpty()) {
+      throw new InvalidInputException("No productIds given");
+    }
+    productIds.stream()
+              .filter(productId -> productId < 1)
+              .findFirst()
+              .ifPresent(productId -> {
+                throw new InvalidInputException("Invalid productId: " + productId);
+              });
+
+    Flux<RecommendationEntity> entities = Flux.deferContextual(context -> find(
+        where("productId").in(productIds),
+        Deadline.from(context),
+        () -> repository.findByProductIdIn(productIds)
+    ));
+
+    return faultInjector.apply(entities)
+                     .log()
+                     .map(mapper::entityToApi)
+                     .map(e -> {
+                       e.setServiceAddress(serviceUtil.getServiceAddress());
+                       return e;
+                     });
+  }
+
+  @Override
+  public Mono<Void> deleteRecommendations(int productId) {
     if (productId < 1) {
       throw new InvalidInputException("Invalid productId: " + productId);
     }
@@ -66,6 +121,21 @@ public class RecommendationServiceImpl implements RecommendationService {
         productId
     );
 
-    repository.deleteAll(repository.findByProductId(productId)).block();
+    return repository.deleteByProductId(productId)
+        .doOnNext(deleted -> log.debug("deleteRecommendations: deleted {} entities", deleted))
+        .then();
+  }
+
+  private Flux<RecommendationEntity> find(
+      Criteria criteria,
+      Optional<Deadline> deadline,
+      Supplier<Flux<RecommendationEntity>> withoutDeadline
+  ) {
+    return deadline
+        .map(d -> mongoOperations.find(
+            query(criteria).maxTime(d.queryTimeLimit()),
+            RecommendationEntity.class
+        ))
+        .orElseGet(withoutDeadline);
   }
 }
@@ -61,6 +61,17 @@ class PersistenceTests {
     assertThat(repository.existsById(savedEntity.getId()).block()).isFalse();
   }
 
+  @Test
+  void deleteByProductId() {
+    repository.save(new RecommendationEntity(1, 3, "a", 3, "c")).block();
+    repository.save(new RecommendationEntity(2, 1, "a", 3, "c")).block();
+
+    assertThat(repository.deleteByProductId(1).block()).isEqualTo(2);
+
+    assertThat(repository.findByProductId(1).count().block()).isZero();
+    assertThat(repository.count().block()).isOne();
+  }
+
   @Test
   void getByProductId() {
     List<RecommendationEntity> entityList = repository.findByProductId(savedEntity.getProductId())
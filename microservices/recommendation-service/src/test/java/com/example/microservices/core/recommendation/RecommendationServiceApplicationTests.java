@@ -2,28 +2,36 @@ package com.example.microservices.core.recommendation;
 
 import static com.example.api.event.Event.Type.CREATE;
 import static com.example.api.event.Event.Type.DELETE;
+import static com.example.util.http.DeadlineRequests.getWithDeadline;
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.assertj.core.api.Fail.fail;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.GATEWAY_TIMEOUT;
 import static org.springframework.http.HttpStatus.OK;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.messaging.MessageHeaders.CONTENT_TYPE;
 
 import com.example.api.core.recommendation.Recommendation;
 import com.example.api.event.Event;
 import com.example.microservices.core.recommendation.persistence.RecommendationRepository;
-import com.example.util.exceptions.InvalidInputException;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.cloud.stream.messaging.Sink;
 import org.springframework.http.HttpStatus;
-import org.springframework.integration.channel.AbstractMessageChannel;
-import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.support.GenericMessage;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
 
 @SpringBootTest(webEnvironment = RANDOM_PORT)
 class RecommendationServiceApplicationTests {
@@ -35,13 +43,14 @@ class RecommendationServiceApplicationTests {
   private RecommendationRepository repository;
 
   @Autowired
-  private Sink channels;
+  @Qualifier("messageProcessor-in-0")
+  private MessageChannel input;
 
-  private AbstractMessageChannel input = null;
+  @Autowired
+  private MeterRegistry meterRegistry;
 
   @BeforeEach
   void setupDb() {
-    input = (AbstractMessageChannel) channels.input();
     repository.deleteAll().block();
   }
 
@@ -61,6 +70,37 @@ class RecommendationServiceApplicationTests {
         .jsonPath("$[2].recommendationId").isEqualTo(3);
   }
 
+  @Test
+  void createRecommendationsInBulk() {
+    int productId = 1;
+
+    sendCreateRecommendationEvent(productId, 1, 2, 3);
+
+    assertThat(repository.findByProductId(productId).count().block()).isEqualTo(3);
+  }
+
+  @Test
+  void createRecommendationFromSingleValueEvent() {
+    String event = "{\"eventType\":\"CREATE\",\"key\":1,\"data\":{\"productId\":1,"
+        + "\"recommendationId\":1,\"author\":\"a\",\"rate\":1,\"content\":\"c\"}}";
+    sendAndWait(MessageBuilder.withPayload(event.getBytes())
+        .setHeader(CONTENT_TYPE, APPLICATION_JSON.toString())
+        .build());
+
+    assertThat(repository.findByProductId(1).count().block()).isEqualTo(1);
+  }
+
+  @Test
+  void getRecommendationsForProducts() {
+    sendCreateRecommendationEvent(1, 1);
+    sendCreateRecommendationEvent(1, 2);
+    sendCreateRecommendationEvent(2, 1);
+    sendCreateRecommendationEvent(3, 1);
+
+    getAndVerifyRecommendationsByProductId("?productIds=1,2", OK)
+        .jsonPath("$.length()").isEqualTo(3);
+  }
+
   @Test
   void duplicateError() {
     int productId = 1;
@@ -70,18 +110,10 @@ class RecommendationServiceApplicationTests {
 
     assertThat(repository.count().block()).isOne();
 
-    try {
-      sendCreateRecommendationEvent(productId, recommendationId);
-      fail("Expected a MessagingException here!");
-    } catch (MessagingException me) {
-      if (me.getCause() instanceof InvalidInputException) {
-        InvalidInputException iie = (InvalidInputException) me.getCause();
-        assertThat(iie.getMessage()).isEqualTo(
-            "Duplicate key, Product Id: " + productId + ", Recommendation Id: " + recommendationId);
-      } else {
-        fail("Expected a InvalidInputException as the root cause!");
-      }
-    }
+    // The duplicate is rejected, to be dead lettered, instead of failing the sender
+    double rejected = processedMessages("rejected");
+    sendCreateRecommendationEvent(productId, recommendationId);
+    assertThat(processedMessages("rejected")).isEqualTo(rejected + 1);
 
     assertThat(repository.count().block()).isOne();
   }
@@ -100,6 +132,19 @@ class RecommendationServiceApplicationTests {
     sendDeleteRecommendationEvent(productId);
   }
 
+  @Test
+  void getRecommendationsWithDeadline() {
+    int productId = 1;
+    sendCreateRecommendationEvent(productId, 1, 2);
+
+    getWithDeadline(client, "/recommendation?productId=" + productId, 5000, OK)
+        .jsonPath("$.length()").isEqualTo(2);
+
+    // The caller already gave up, the database is not queried
+    getWithDeadline(client, "/recommendation?productId=" + productId, 0, GATEWAY_TIMEOUT)
+        .jsonPath("$.path").isEqualTo("/recommendation");
+  }
+
   @Test
   void getRecommendationsMissingParameter() {
     getAndVerifyRecommendationsByProductId("?productId=no-integer", BAD_REQUEST)
@@ -142,15 +187,32 @@ class RecommendationServiceApplicationTests {
         .expectBody();
   }
 
-  private void sendCreateRecommendationEvent(int productId, int recommendationId) {
-    Recommendation recommendation = new Recommendation(productId, recommendationId,
-        "Author " + recommendationId, recommendationId, "Content " + recommendationId, "SA");
-    Event<Integer, Recommendation> event = new Event<>(CREATE, productId, recommendation);
-    input.send(new GenericMessage<>(event));
+  private void sendCreateRecommendationEvent(int productId, int... recommendationIds) {
+    List<Recommendation> recommendations = IntStream.of(recommendationIds)
+        .mapToObj(recommendationId -> new Recommendation(productId, recommendationId,
+            "Author " + recommendationId, recommendationId, "Content " + recommendationId, "SA"))
+        .collect(Collectors.toList());
+    Event<Integer, List<Recommendation>> event = new Event<>(CREATE, productId, recommendations);
+    sendAndWait(new GenericMessage<>(event));
   }
 
   private void sendDeleteRecommendationEvent(int productId) {
     Event<Integer, Recommendation> event = new Event<>(DELETE, productId, null);
-    input.send(new GenericMessage<>(event));
+    sendAndWait(new GenericMessage<>(event));
+  }
+
+  // Messages are processed asynchronously, so a send waits until the message was acked or rejected
+  private void sendAndWait(Message<?> message) {
+    double processed = processedMessages("acked") + processedMessages("rejected");
+    input.send(message);
+
+    Mono.fromSupplier(() -> processedMessages("acked") + processedMessages("rejected"))
+        .filter(count -> count > processed)
+        .repeatWhenEmpty(repeats -> repeats.delayElements(Duration.ofMillis(10)))
+        .block(Duration.ofSeconds(10));
+  }
+
+  private double processedMessages(String result) {
+    return meterRegistry.get("messages.processed").tag("result", result).counter().count();
   }
 }
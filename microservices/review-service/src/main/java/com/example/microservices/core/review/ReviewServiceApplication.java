@@ -30,7 +30,10 @@ public class ReviewServiceApplication {
   @Bean
   public Scheduler jdbcScheduler() {
     log.info("Creates a jdbcScheduler with connectionPoolSize = {}", connectionPoolSize);
-    return Schedulers.fromExecutor(Executors.newFixedThreadPool(connectionPoolSize));
+    // An executor service, unlike a plain executor, lets cancelled tasks that haven't started
+    // yet be removed from its queue
+    return Schedulers.fromExecutorService(
+        Executors.newFixedThreadPool(connectionPoolSize), "jdbc");
   }
 
   public static void main(String[] args) {
@@ -0,0 +1,49 @@
+package com.example.microservices.core.review.persistence;
+
+import java.util.concurrent.CancellationException;
+
+// Lets another thread cancel the statement a query is currently running on its JDBC connection.
+// A query is refused if it was cancelled before it got to run. A cancel that comes after the query
+// started but before its statement executes sticks, the statement is refused when it's about to
+// execute instead of being missed by a canceller that has no statement to cancel yet.
+public class QueryCancellation {
+
+  public enum State { QUEUED, RUNNING, FINISHED }
+
+  private State state = State.QUEUED;
+  private Runnable canceller;
+  private boolean executing;
+  private boolean cancelled;
+
+  synchronized void register(Runnable canceller) {
+    if (cancelled) {
+      throw new CancellationException("Query cancelled before it was started");
+    }
+    this.canceller = canceller;
+    this.state = State.RUNNING;
+  }
+
+  // Called right before a statement of the query executes, once the canceller can reach it
+  synchronized void executing() {
+    if (cancelled) {
+      throw new CancellationException("Query cancelled before its statement was executed");
+    }
+    this.executing = true;
+  }
+
+  synchronized void unregister() {
+    this.canceller = null;
+    this.executing = false;
+    this.state = State.FINISHED;
+  }
+
+  // Returns the state the query was in when it was cancelled, only an executing statement is
+  // interrupted
+  public synchronized State cancel() {
+    cancelled = true;
+    if (state == State.RUNNING && executing) {
+      canceller.run();
+    }
+    return state;
+  }
+}
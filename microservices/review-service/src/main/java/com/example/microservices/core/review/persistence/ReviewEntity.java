@@ -2,8 +2,10 @@ package com.example.microservices.core.review.persistence;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.Version;
 import lombok.EqualsAndHashCode;
@@ -24,8 +26,13 @@ import lombok.Setter;
 @EqualsAndHashCode
 public class ReviewEntity {
 
+  // Ids are allocated 50 at a time, so new reviews can be inserted in JDBC batches. It's the
+  // sequence ids were generated from before, the pooled-lo optimizer continues from its value.
+  // Instances that allocate one id at a time must not share the sequence with these, a database
+  // sequence must also be set to increment by 50.
   @Id
-  @GeneratedValue
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "review_ids")
+  @SequenceGenerator(name = "review_ids", sequenceName = "hibernate_sequence", allocationSize = 50)
   private int id;
 
   @Version
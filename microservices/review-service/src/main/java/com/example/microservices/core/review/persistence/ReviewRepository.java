@@ -1,11 +1,25 @@
 package com.example.microservices.core.review.persistence;
 
+import java.util.Collection;
 import java.util.List;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 
-public interface ReviewRepository extends CrudRepository<ReviewEntity, Integer> {
+public interface ReviewRepository extends CrudRepository<ReviewEntity, Integer>,
+    ReviewRepositoryCustom {
 
   @Transactional(readOnly = true)
   List<ReviewEntity> findByProductId(int productId);
+
+  @Transactional(readOnly = true)
+  List<ReviewEntity> findByProductIdIn(Collection<Integer> productIds);
+
+  // One delete statement, the reviews are not loaded first. Returns the number of deleted reviews.
+  @Modifying
+  @Transactional
+  @Query("delete from ReviewEntity r where r.productId = :productId")
+  int deleteByProductId(@Param("productId") int productId);
 }
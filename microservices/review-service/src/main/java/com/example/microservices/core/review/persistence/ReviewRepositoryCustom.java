@@ -0,0 +1,21 @@
+package com.example.microservices.core.review.persistence;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+
+public interface ReviewRepositoryCustom {
+
+  // A null timeout means no timeout
+  List<ReviewEntity> findByProductId(
+      int productId,
+      Duration timeout,
+      QueryCancellation cancellation
+  );
+
+  List<ReviewEntity> findByProductIdIn(
+      Collection<Integer> productIds,
+      Duration timeout,
+      QueryCancellation cancellation
+  );
+}
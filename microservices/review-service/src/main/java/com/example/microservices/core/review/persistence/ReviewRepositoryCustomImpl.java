@@ -0,0 +1,74 @@
+package com.example.microservices.core.review.persistence;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.Session;
+import org.springframework.transaction.annotation.Transactional;
+
+// Queries that can be given up on, by a JDBC query timeout and by cancelling the running
+// statement from another thread. Either way the database stops working on them.
+public class ReviewRepositoryCustomImpl implements ReviewRepositoryCustom {
+
+  // JDBC query timeouts are in whole seconds
+  private static final String TIMEOUT_SECONDS_HINT = "org.hibernate.timeout";
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<ReviewEntity> findByProductId(
+      int productId,
+      Duration timeout,
+      QueryCancellation cancellation
+  ) {
+    return getResultList(entityManager.createQuery(
+            "select r from ReviewEntity r where r.productId = :productId", ReviewEntity.class)
+        .setParameter("productId", productId), timeout, cancellation);
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<ReviewEntity> findByProductIdIn(
+      Collection<Integer> productIds,
+      Duration timeout,
+      QueryCancellation cancellation
+  ) {
+    return getResultList(entityManager.createQuery(
+            "select r from ReviewEntity r where r.productId in :productIds", ReviewEntity.class)
+        .setParameter("productIds", productIds), timeout, cancellation);
+  }
+
+  private List<ReviewEntity> getResultList(
+      TypedQuery<ReviewEntity> query,
+      Duration timeout,
+      QueryCancellation cancellation
+  ) {
+    if (timeout != null) {
+      // Rounded up, a timeout below a second would otherwise mean no timeout at all
+      int seconds = (int) Math.max(1, (timeout.toMillis() + 999) / 1000);
+      query.setHint(TIMEOUT_SECONDS_HINT, seconds);
+    }
+
+    // The session is the one of the current transaction, it cancels its last statement. Hibernate
+    // registers a statement as the last one before it signals its execution to the listeners.
+    Session session = entityManager.unwrap(Session.class);
+    cancellation.register(session::cancelQuery);
+    session.addEventListeners(new BaseSessionEventListener() {
+      @Override
+      public void jdbcExecuteStatementStart() {
+        cancellation.executing();
+      }
+    });
+    try {
+      return query.getResultList();
+    } finally {
+      cancellation.unregister();
+    }
+  }
+}
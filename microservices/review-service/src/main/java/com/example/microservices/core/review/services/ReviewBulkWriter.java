@@ -0,0 +1,158 @@
+package com.example.microservices.core.review.services;
+
+import com.example.api.core.review.Review;
+import com.example.api.event.Event;
+import com.example.microservices.core.review.persistence.ReviewEntity;
+import com.example.microservices.core.review.persistence.ReviewRepository;
+import com.example.util.exceptions.EventProcessingException;
+import com.example.util.exceptions.InvalidInputException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+// Writes a batch of review events in one transaction, so the new reviews are inserted with
+// batched statements in one flush at commit. A duplicate, or any other failure, fails the whole
+// transaction, the events of the batch are then written one transaction each, so only the events
+// that fail are failed.
+// The events of a batch must be for distinct products. Returns the failed events by their index.
+@Component
+@Slf4j
+public class ReviewBulkWriter {
+
+  private final ReviewRepository repository;
+  private final ReviewMapper mapper;
+  private final TransactionTemplate transactionTemplate;
+  private final Scheduler scheduler;
+
+  private final Counter insertedRows;
+  private volatile double insertedRowsPerSecond;
+
+  public ReviewBulkWriter(
+      ReviewRepository repository,
+      ReviewMapper mapper,
+      TransactionTemplate transactionTemplate,
+      Scheduler scheduler,
+      MeterRegistry meterRegistry
+  ) {
+    this.repository = repository;
+    this.mapper = mapper;
+    this.transactionTemplate = transactionTemplate;
+    this.scheduler = scheduler;
+
+    this.insertedRows = Counter.builder("review.rows.inserted")
+        .description("Reviews inserted by bulk writes")
+        .register(meterRegistry);
+    Gauge.builder("review.rows.inserted.per-second", this, writer -> writer.insertedRowsPerSecond)
+        .description("Reviews inserted per second by the last bulk write")
+        .register(meterRegistry);
+  }
+
+  public Mono<Map<Integer, Throwable>> write(List<Event<Integer, List<Review>>> events) {
+    return Mono.fromCallable(() -> writeBatch(events)).subscribeOn(scheduler);
+  }
+
+  private Map<Integer, Throwable> writeBatch(List<Event<Integer, List<Review>>> events) {
+    Map<Integer, Throwable> failures = new HashMap<>();
+    List<Integer> valid = new ArrayList<>();
+    for (int i = 0; i < events.size(); i++) {
+      Optional<Throwable> invalid = validate(events.get(i));
+      if (invalid.isPresent()) {
+        failures.put(i, invalid.get());
+      } else {
+        valid.add(i);
+      }
+    }
+
+    // Deletes first, a delete statement flushes pending inserts and would split their batches
+    List<Integer> deletesFirst = valid.stream()
+        .sorted(Comparator.comparing(i -> isCreate(events.get(i))))
+        .collect(Collectors.toList());
+
+    long start = System.nanoTime();
+    int rows;
+    try {
+      rows = transactionTemplate.execute(status -> deletesFirst.stream()
+          .mapToInt(i -> apply(events.get(i)))
+          .sum());
+    } catch (RuntimeException ex) {
+      log.debug("Bulk write of {} events failed, writes them one by one: {}", valid.size(),
+          ex.getMessage());
+      rows = 0;
+      for (int i : deletesFirst) {
+        Event<Integer, List<Review>> event = events.get(i);
+        try {
+          rows += transactionTemplate.execute(status -> apply(event));
+        } catch (DataIntegrityViolationException duplicate) {
+          failures.put(i, new InvalidInputException("Duplicate key, Product Id: "
+              + event.getKey() + ", Review Id: " + reviewIds(event)));
+        } catch (RuntimeException failure) {
+          failures.put(i, failure);
+        }
+      }
+    }
+
+    recordInserted(rows, System.nanoTime() - start);
+    return failures;
+  }
+
+  // Returns the number of reviews inserted
+  private int apply(Event<Integer, List<Review>> event) {
+    if (isCreate(event)) {
+      List<ReviewEntity> entities = mapper.apiListToEntityList(event.getData());
+      repository.saveAll(entities);
+      return entities.size();
+    }
+    repository.deleteByProductId(event.getKey());
+    return 0;
+  }
+
+  private Optional<Throwable> validate(Event<Integer, List<Review>> event) {
+    switch (event.getEventType()) {
+      case CREATE:
+        return event.getData().stream()
+            .filter(review -> review.getProductId() < 1)
+            .findFirst()
+            .<Throwable>map(review -> new InvalidInputException(
+                "Invalid productId: " + review.getProductId()));
+
+      case DELETE:
+        return Optional.empty();
+
+      default:
+        return Optional.of(new EventProcessingException("Incorrect event type: "
+            + event.getEventType() + ", expected a CREATE or DELETE event"));
+    }
+  }
+
+  private void recordInserted(int rows, long elapsedNanos) {
+    if (rows == 0) {
+      return;
+    }
+    insertedRows.increment(rows);
+    insertedRowsPerSecond = rows * 1e9 / Math.max(1, elapsedNanos);
+    log.debug("Inserted {} reviews, {} per second", rows, (long) insertedRowsPerSecond);
+  }
+
+  private static boolean isCreate(Event<Integer, List<Review>> event) {
+    return event.getEventType() == Event.Type.CREATE;
+  }
+
+  private static String reviewIds(Event<Integer, List<Review>> event) {
+    return event.getData().stream()
+        .map(review -> String.valueOf(review.getReviewId()))
+        .collect(Collectors.joining(", "));
+  }
+}
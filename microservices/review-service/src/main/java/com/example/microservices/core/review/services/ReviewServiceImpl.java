@@ -4,19 +4,30 @@ import static java.util.logging.Level.FINE;
 
 import com.example.api.core.review.Review;
 import com.example.api.core.review.ReviewService;
+import com.example.microservices.core.review.persistence.QueryCancellation;
 import com.example.microservices.core.review.persistence.ReviewEntity;
 import com.example.microservices.core.review.persistence.ReviewRepository;
 import com.example.util.exceptions.InvalidInputException;
+import com.example.util.http.Deadline;
+import com.example.util.http.FaultInjector;
 import com.example.util.http.ServiceUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.BiFunction;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.reactivestreams.Publisher;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 @RestController
 @RequiredArgsConstructor
@@ -27,28 +38,45 @@ public class ReviewServiceImpl implements ReviewService {
   private final ReviewMapper mapper;
   private final Scheduler scheduler;
   private final ServiceUtil serviceUtil;
+  private final MeterRegistry meterRegistry;
+  private final FaultInjector faultInjector;
 
   @Override
-  public Review createReview(Review body) {
-    if (body.getProductId() < 1) {
-      throw new InvalidInputException("Invalid productId: " + body.getProductId());
+  public Flux<Review> createReviews(List<Review> body) {
+    body.stream()
+        .filter(review -> review.getProductId() < 1)
+        .findFirst()
+        .ifPresent(review -> {
+          throw new InvalidInputException("Invalid productId: " + review.getProductId());
+        });
+
+    if (body.isEmpty()) {
+      return Flux.empty();
     }
 
+    return asyncFlux(() -> Flux.fromIterable(internalCreateReviews(body)));
+  }
+
+  protected List<Review> internalCreateReviews(List<Review> body) {
     try {
-      ReviewEntity entity = mapper.apiToEntity(body);
-      ReviewEntity newEntity = repository.save(entity);
+      // All reviews are saved in one transaction
+      List<ReviewEntity> entities = mapper.apiListToEntityList(body);
+      List<ReviewEntity> newEntities = new ArrayList<>();
+      repository.saveAll(entities).forEach(newEntities::add);
 
       log.debug(
-          "createReview: created a review entity: {}/{}",
-          body.getProductId(),
-          body.getReviewId()
+          "createReviews: created {} review entities for productId: {}",
+          newEntities.size(),
+          body.get(0).getProductId()
       );
 
-      return mapper.entityToApi(newEntity);
+      return mapper.entityListToApiList(newEntities);
     } catch (DataIntegrityViolationException e) {
       throw new InvalidInputException(
-          "Duplicate key, Product Id: " + body.getProductId() + ", Review Id: "
-              + body.getReviewId());
+          "Duplicate key, Product Id: " + body.get(0).getProductId() + ", Review Id: "
+              + body.stream()
+              .map(review -> String.valueOf(review.getReviewId()))
+              .collect(Collectors.joining(", ")));
     }
   }
 
@@ -60,12 +88,20 @@ public class ReviewServiceImpl implements ReviewService {
 
     log.info("Will get reviews for product with id={}", productId);
 
-    return asyncFlux(() -> Flux.fromIterable(getByProductId(productId)))
+    return cancellableQuery("getReviews",
+            (deadline, cancellation) -> getByProductId(productId, deadline, cancellation))
         .log(null, FINE);
   }
 
-  protected List<Review> getByProductId(int productId) {
-    List<ReviewEntity> entityList = repository.findByProductId(productId);
+  // The deadline is checked once a jdbcScheduler thread is available, a request that waited
+  // too long for one is skipped. Otherwise the rest of the deadline is the query timeout.
+  protected List<Review> getByProductId(
+      int productId,
+      Optional<Deadline> deadline,
+      QueryCancellation cancellation
+  ) {
+    List<ReviewEntity> entityList = repository.findByProductId(productId,
+        deadline.map(Deadline::queryTimeLimit).orElse(null), cancellation);
     List<Review> list = mapper.entityListToApiList(entityList);
     list.forEach(e -> e.setServiceAddress(serviceUtil.getServiceAddress()));
 
@@ -75,17 +111,88 @@ public class ReviewServiceImpl implements ReviewService {
   }
 
   @Override
-  public void deleteReviews(int productId) {
+  public Flux<Review> getReviewsForProducts(List<Integer> productIds) {
+    if (productIds.isEmpty()) {
+      throw new InvalidInputException("No productIds given");
+    }
+    productIds.stream()
+        .filter(productId -> productId < 1)
+        .findFirst()
+        .ifPresent(productId -> {
+          throw new InvalidInputException("Invalid productId: " + productId);
+        });
+
+    log.info("Will get reviews for products with ids={}", productIds);
+
+    return cancellableQuery("getReviewsForProducts",
+            (deadline, cancellation) -> getByProductIds(productIds, deadline, cancellation))
+        .log(null, FINE);
+  }
+
+  protected List<Review> getByProductIds(
+      List<Integer> productIds,
+      Optional<Deadline> deadline,
+      QueryCancellation cancellation
+  ) {
+    List<ReviewEntity> entityList = repository.findByProductIdIn(productIds,
+        deadline.map(Deadline::queryTimeLimit).orElse(null), cancellation);
+    List<Review> list = mapper.entityListToApiList(entityList);
+    list.forEach(e -> e.setServiceAddress(serviceUtil.getServiceAddress()));
+
+    log.debug("getReviewsForProducts: response size: {}", list.size());
+
+    return list;
+  }
+
+  @Override
+  public Mono<Void> deleteReviews(int productId) {
     if (productId < 1) {
       throw new InvalidInputException("Invalid productId: " + productId);
     }
-    
+
+    return Mono.fromRunnable(() -> internalDeleteReviews(productId))
+        .subscribeOn(scheduler)
+        .then();
+  }
+
+  protected void internalDeleteReviews(int productId) {
     log.debug(
         "deleteReviews: tries to delete reviews for the product with productId: {}",
         productId
     );
 
-    repository.deleteAll(repository.findByProductId(productId));
+    int deleted = repository.deleteByProductId(productId);
+    log.debug("deleteReviews: deleted {} entities", deleted);
+  }
+
+  // Runs a query on the jdbcScheduler. When the subscriber cancels, e.g. since the client
+  // disconnected, the running statement is cancelled and a query still waiting for a thread is
+  // never started, so neither holds a connection or a jdbcScheduler thread any longer.
+  // Injected latency is waited for before the query is scheduled, not on a jdbcScheduler thread.
+  private Flux<Review> cancellableQuery(
+      String operation,
+      BiFunction<Optional<Deadline>, QueryCancellation, List<Review>> query
+  ) {
+    return faultInjector.apply(Flux.deferContextual(context -> {
+      Optional<Deadline> deadline = Deadline.from(context);
+      QueryCancellation cancellation = new QueryCancellation();
+      return asyncFlux(() -> Flux.fromIterable(query.apply(deadline, cancellation)))
+          .doOnCancel(() -> cancelQuery(operation, cancellation));
+    }));
+  }
+
+  // Cancelling a statement can take a round trip to the database, keep it off the event loop
+  private void cancelQuery(String operation, QueryCancellation cancellation) {
+    Schedulers.boundedElastic().schedule(() -> {
+      QueryCancellation.State state = cancellation.cancel();
+      log.debug("{} cancelled by the subscriber, the query was {}", operation, state);
+
+      Counter.builder("review.cancelled.queries")
+          .description("Queries cancelled by their subscriber, by the state they were in")
+          .tags("operation", operation, "state", state.name().toLowerCase())
+          .register(meterRegistry)
+          .increment();
+    });
   }
 
   private <T> Flux<T> asyncFlux(Supplier<Publisher<T>> publisherSupplier) {
@@ -0,0 +1,101 @@
+package com.example.microservices.core.review;
+
+import static com.example.api.event.Event.Type.CREATE;
+import static com.example.api.event.Event.Type.DELETE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.api.core.review.Review;
+import com.example.api.event.Event;
+import com.example.microservices.core.review.persistence.ReviewRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.GenericMessage;
+import reactor.core.publisher.Mono;
+
+@SpringBootTest(properties = {
+    "app.message-processor.batch.enabled=true",
+    "app.message-processor.batch.maxSize=10",
+    "app.message-processor.batch.maxWaitMs=100"
+})
+class BatchMessageProcessorTests {
+
+  @Autowired
+  private ReviewRepository repository;
+
+  @Autowired
+  @Qualifier("messageProcessor-in-0")
+  private MessageChannel input;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @BeforeEach
+  void setupDb() {
+    repository.deleteAll();
+  }
+
+  @Test
+  void writeBatch() {
+    double inserted = insertedRows();
+
+    sendAndWait(List.of(createEvent(1, 1, 2, 3), createEvent(2, 1), deleteEvent(3)));
+
+    assertThat(repository.count()).isEqualTo(4);
+    assertThat(insertedRows()).isEqualTo(inserted + 4);
+    assertThat(meterRegistry.get("review.rows.inserted.per-second").gauge().value()).isPositive();
+  }
+
+  @Test
+  void duplicateDoesNotFailTheBatch() {
+    sendAndWait(List.of(createEvent(1, 1)));
+
+    double acked = processedMessages("acked");
+    double rejected = processedMessages("rejected");
+
+    sendAndWait(List.of(createEvent(2, 1), createEvent(1, 1), createEvent(3, 1, 2)));
+
+    assertThat(repository.count()).isEqualTo(4);
+    assertThat(processedMessages("acked")).isEqualTo(acked + 2);
+    assertThat(processedMessages("rejected")).isEqualTo(rejected + 1);
+  }
+
+  private Event<Integer, List<Review>> createEvent(int productId, int... reviewIds) {
+    List<Review> reviews = IntStream.of(reviewIds)
+        .mapToObj(reviewId -> new Review(productId, reviewId,
+            "Author " + reviewId, "Subject " + reviewId, "Content " + reviewId, "SA"))
+        .collect(Collectors.toList());
+    return new Event<>(CREATE, productId, reviews);
+  }
+
+  private Event<Integer, List<Review>> deleteEvent(int productId) {
+    return new Event<>(DELETE, productId, null);
+  }
+
+  // The events are sent at once, to end up in the same batch, and processed asynchronously
+  private void sendAndWait(List<Event<Integer, List<Review>>> events) {
+    double processed = processedMessages("acked") + processedMessages("rejected");
+    events.forEach(event -> input.send(new GenericMessage<>(event)));
+
+    Mono.fromSupplier(() -> processedMessages("acked") + processedMessages("rejected"))
+        .filter(count -> count >= processed + events.size())
+        .repeatWhenEmpty(repeats -> repeats.delayElements(Duration.ofMillis(10)))
+        .block(Duration.ofSeconds(10));
+  }
+
+  private double processedMessages(String result) {
+    return meterRegistry.get("messages.processed").tag("result", result).counter().count();
+  }
+
+  private double insertedRows() {
+    return meterRegistry.get("review.rows.inserted").counter().count();
+  }
+}
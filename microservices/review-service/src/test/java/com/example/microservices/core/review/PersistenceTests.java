@@ -5,9 +5,12 @@ import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Assertions.fail;
 import static org.springframework.transaction.annotation.Propagation.NOT_SUPPORTED;
 
+import com.example.microservices.core.review.persistence.QueryCancellation;
 import com.example.microservices.core.review.persistence.ReviewEntity;
 import com.example.microservices.core.review.persistence.ReviewRepository;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -64,6 +67,17 @@ class PersistenceTests {
     assertThat(repository.existsById(savedEntity.getId())).isFalse();
   }
 
+  @Test
+  void deleteByProductId() {
+    repository.save(new ReviewEntity(1, 3, "a", "s", "c"));
+    repository.save(new ReviewEntity(2, 1, "a", "s", "c"));
+
+    assertThat(repository.deleteByProductId(1)).isEqualTo(2);
+
+    assertThat(repository.findByProductId(1)).isEmpty();
+    assertThat(repository.count()).isOne();
+  }
+
   @Test
   void getByProductId() {
     List<ReviewEntity> entityList = repository.findByProductId(savedEntity.getProductId());
@@ -72,6 +86,22 @@ class PersistenceTests {
     assertThat(entityList.get(0)).isEqualTo(savedEntity);
   }
 
+  @Test
+  void getByProductIdCancellable() {
+    int productId = savedEntity.getProductId();
+
+    QueryCancellation cancellation = new QueryCancellation();
+    assertThat(repository.findByProductId(productId, Duration.ofSeconds(1), cancellation))
+        .containsExactly(savedEntity);
+    assertThat(cancellation.cancel()).isEqualTo(QueryCancellation.State.FINISHED);
+
+    // A query cancelled while it waited for a thread is never sent
+    QueryCancellation cancelled = new QueryCancellation();
+    assertThat(cancelled.cancel()).isEqualTo(QueryCancellation.State.QUEUED);
+    assertThatThrownBy(() -> repository.findByProductId(productId, null, cancelled))
+        .isInstanceOf(CancellationException.class);
+  }
+
   @Test
   void duplicationError() {
     ReviewEntity entity = new ReviewEntity(1, 2, "a", "s", "c");
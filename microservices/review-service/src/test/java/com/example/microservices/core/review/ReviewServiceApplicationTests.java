@@ -2,28 +2,43 @@ package com.example.microservices.core.review;
 
 import static com.example.api.event.Event.Type.CREATE;
 import static com.example.api.event.Event.Type.DELETE;
+import static com.example.util.http.DeadlineRequests.getWithDeadline;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.assertj.core.api.Fail.fail;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.GATEWAY_TIMEOUT;
 import static org.springframework.http.HttpStatus.OK;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
 
 import com.example.api.core.review.Review;
+import com.example.api.core.review.ReviewService;
 import com.example.api.event.Event;
 import com.example.microservices.core.review.persistence.ReviewRepository;
-import com.example.util.exceptions.InvalidInputException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.h2.api.Trigger;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.cloud.stream.messaging.Sink;
 import org.springframework.http.HttpStatus;
-import org.springframework.integration.channel.AbstractMessageChannel;
-import org.springframework.messaging.MessagingException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.support.GenericMessage;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
 
 @SpringBootTest(webEnvironment = RANDOM_PORT)
 class ReviewServiceApplicationTests {
@@ -35,13 +50,20 @@ class ReviewServiceApplicationTests {
   private ReviewRepository repository;
 
   @Autowired
-  private Sink channels;
+  private ReviewService reviewService;
 
-  private AbstractMessageChannel input = null;
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  @Qualifier("messageProcessor-in-0")
+  private MessageChannel input;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
 
   @BeforeEach
   void setupDb() {
-    input = (AbstractMessageChannel) channels.input();
     repository.deleteAll();
   }
 
@@ -63,6 +85,26 @@ class ReviewServiceApplicationTests {
         .jsonPath("$[2].reviewId").isEqualTo(3);
   }
 
+  @Test
+  void createReviewsInBulk() {
+    int productId = 1;
+
+    sendCreateReviewEvent(productId, 1, 2, 3);
+
+    assertThat(repository.findByProductId(productId).size()).isEqualTo(3);
+  }
+
+  @Test
+  void getReviewsForProducts() {
+    sendCreateReviewEvent(1, 1);
+    sendCreateReviewEvent(1, 2);
+    sendCreateReviewEvent(2, 1);
+    sendCreateReviewEvent(3, 1);
+
+    getAndVerifyReviewsByProductId("?productIds=1,2", OK)
+        .jsonPath("$.length()").isEqualTo(3);
+  }
+
   @Test
   void duplicateError() {
     int productId = 1;
@@ -74,18 +116,10 @@ class ReviewServiceApplicationTests {
 
     assertThat(repository.count()).isOne();
 
-    try {
-      sendCreateReviewEvent(productId, reviewId);
-      fail("Expected a MessagingException here!");
-    } catch (MessagingException me) {
-      if (me.getCause() instanceof InvalidInputException) {
-        InvalidInputException iie = (InvalidInputException) me.getCause();
-        assertThat(iie.getMessage()).isEqualTo(
-            "Duplicate key, Product Id: " + productId + ", Review Id: " + reviewId);
-      } else {
-        fail("Expected a InvalidInputException as the root cause!");
-      }
-    }
+    // The duplicate is rejected, to be dead lettered, instead of failing the sender
+    double rejected = processedMessages("rejected");
+    sendCreateReviewEvent(productId, reviewId);
+    assertThat(processedMessages("rejected")).isEqualTo(rejected + 1);
 
     assertThat(repository.count()).isOne();
   }
@@ -104,6 +138,21 @@ class ReviewServiceApplicationTests {
     sendDeleteReviewEvent(productId);
   }
 
+  @Test
+  void getReviewsWithDeadline() {
+    int productId = 1;
+    sendCreateReviewEvent(productId, 1, 2);
+
+    getWithDeadline(client, "/review?productId=" + productId, 5000, OK)
+        .jsonPath("$.length()").isEqualTo(2);
+    getWithDeadline(client, "/review?productIds=" + productId, 5000, OK)
+        .jsonPath("$.length()").isEqualTo(2);
+
+    // The caller already gave up, the database is not queried
+    getWithDeadline(client, "/review?productId=" + productId, 0, GATEWAY_TIMEOUT)
+        .jsonPath("$.path").isEqualTo("/review");
+  }
+
   @Test
   void getReviewsMissingParameter() {
     getAndVerifyReviewsByProductId("?productId=no-integer", BAD_REQUEST)
@@ -117,6 +166,30 @@ class ReviewServiceApplicationTests {
         .jsonPath("$.length()").isEqualTo(0);
   }
 
+  @Test
+  void cancelRunningQuery() {
+    int productId = 1;
+    sendCreateReviewEvent(productId, 1);
+
+    jdbcTemplate.execute("CREATE TRIGGER block_select BEFORE SELECT ON reviews CALL \""
+        + BlockingSelectTrigger.class.getName() + "\"");
+    try {
+      Disposable subscription = reviewService.getReviews(productId).subscribe();
+      assertThat(BlockingSelectTrigger.awaitSelect()).isTrue();
+
+      subscription.dispose();
+
+      Mono.fromSupplier(() -> cancelledQueries("running"))
+          .filter(count -> count > 0)
+          .repeatWhenEmpty(repeats -> repeats.delayElements(Duration.ofMillis(10)))
+          .block(Duration.ofSeconds(5));
+      assertThat(cancelledQueries("running")).isOne();
+    } finally {
+      BlockingSelectTrigger.release();
+      jdbcTemplate.execute("DROP TRIGGER block_select");
+    }
+  }
+
   @Test
   void getReviewsInvalidParameterNegativeValue() {
     int productIdInvalid = -1;
@@ -146,15 +219,83 @@ class ReviewServiceApplicationTests {
         .expectBody();
   }
 
-  private void sendCreateReviewEvent(int productId, int reviewId) {
-    Review review = new Review(productId, reviewId,
-        "Author " + reviewId, "Subject " + reviewId, "Content " + reviewId, "SA");
-    Event<Integer, Review> event = new Event<>(CREATE, productId, review);
-    input.send(new GenericMessage<>(event));
+  private void sendCreateReviewEvent(int productId, int... reviewIds) {
+    List<Review> reviews = IntStream.of(reviewIds)
+        .mapToObj(reviewId -> new Review(productId, reviewId,
+            "Author " + reviewId, "Subject " + reviewId, "Content " + reviewId, "SA"))
+        .collect(Collectors.toList());
+    Event<Integer, List<Review>> event = new Event<>(CREATE, productId, reviews);
+    sendAndWait(new GenericMessage<>(event));
   }
 
   private void sendDeleteReviewEvent(int productId) {
     Event<Integer, Review> event = new Event<>(DELETE, productId, null);
-    input.send(new GenericMessage<>(event));
+    sendAndWait(new GenericMessage<>(event));
+  }
+
+  // Messages are processed asynchronously, so a send waits until the message was acked or rejected
+  private void sendAndWait(Message<?> message) {
+    double processed = processedMessages("acked") + processedMessages("rejected");
+    input.send(message);
+
+    Mono.fromSupplier(() -> processedMessages("acked") + processedMessages("rejected"))
+        .filter(count -> count > processed)
+        .repeatWhenEmpty(repeats -> repeats.delayElements(Duration.ofMillis(10)))
+        .block(Duration.ofSeconds(10));
+  }
+
+  private double processedMessages(String result) {
+    return meterRegistry.get("messages.processed").tag("result", result).counter().count();
+  }
+
+  private double cancelledQueries(String state) {
+    Counter counter = meterRegistry.find("review.cancelled.queries")
+        .tags("operation", "getReviews", "state", state)
+        .counter();
+    return counter == null ? 0 : counter.count();
+  }
+
+  // Holds selects on the reviews table until released, so a query can be cancelled while its
+  // statement executes
+  public static class BlockingSelectTrigger implements Trigger {
+
+    private static final CountDownLatch selected = new CountDownLatch(1);
+    private static final CountDownLatch released = new CountDownLatch(1);
+
+    static boolean awaitSelect() {
+      try {
+        return selected.await(5, SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    static void release() {
+      released.countDown();
+    }
+
+    @Override
+    public void init(Connection conn, String schemaName, String triggerName, String tableName,
+        boolean before, int type) {
+    }
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+      selected.countDown();
+      try {
+        released.await(5, SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void remove() {
+    }
   }
 }
@@ -0,0 +1,19 @@
+package com.example.util.exceptions;
+
+public class DeadlineExceededException extends RuntimeException {
+
+  public DeadlineExceededException() {
+  }
+
+  public DeadlineExceededException(String message) {
+    super(message);
+  }
+
+  public DeadlineExceededException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  public DeadlineExceededException(Throwable cause) {
+    super(cause);
+  }
+}
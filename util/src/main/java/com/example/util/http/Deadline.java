@@ -0,0 +1,51 @@
+package com.example.util.http;
+
+import com.example.util.exceptions.DeadlineExceededException;
+import java.time.Duration;
+import java.util.Optional;
+import reactor.util.context.ContextView;
+
+// Point in time by which the caller needs a response. It is passed between services as the
+// remaining milliseconds in a request header, so the clocks of the services don't matter.
+public class Deadline {
+
+  public static final String HEADER = "X-Request-Timeout-Ms";
+
+  private final long expiresAtNanos;
+
+  private Deadline(long expiresAtNanos) {
+    this.expiresAtNanos = expiresAtNanos;
+  }
+
+  public static Deadline after(Duration timeout) {
+    return new Deadline(System.nanoTime() + timeout.toNanos());
+  }
+
+  // Set by the DeadlineFilter for requests that carry the header
+  public static Optional<Deadline> from(ContextView context) {
+    return context.getOrEmpty(Deadline.class);
+  }
+
+  public Duration remaining() {
+    return Duration.ofNanos(Math.max(0, expiresAtNanos - System.nanoTime()));
+  }
+
+  public boolean isExpired() {
+    return expiresAtNanos - System.nanoTime() <= 0;
+  }
+
+  // Called before starting work the caller will no longer wait for
+  public void check() {
+    if (isExpired()) {
+      throw new DeadlineExceededException("Deadline of the request exceeded, skips the request");
+    }
+  }
+
+  // Time limit for a database query, so the database gives up on it when the caller does. Checks
+  // the deadline first and rounds up to whole milliseconds, since Mongo treats a maxTimeMS of 0 as
+  // no limit at all.
+  public Duration queryTimeLimit() {
+    check();
+    return Duration.ofMillis(Math.max(1, (remaining().toNanos() + 999_999) / 1_000_000));
+  }
+}
@@ -0,0 +1,38 @@
+package com.example.util.http;
+
+import java.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+// Makes the deadline of a request, given by its caller in the Deadline header, available to
+// the request handling through the Reactor context.
+@Component
+public class DeadlineFilter implements WebFilter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DeadlineFilter.class);
+
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+    String timeout = exchange.getRequest().getHeaders().getFirst(Deadline.HEADER);
+    if (timeout == null) {
+      return chain.filter(exchange);
+    }
+
+    long timeoutMs;
+    try {
+      timeoutMs = Long.parseLong(timeout.trim());
+    } catch (NumberFormatException ex) {
+      LOG.warn("Ignores invalid {} header: {}", Deadline.HEADER, timeout);
+      return chain.filter(exchange);
+    }
+
+    Deadline deadline = Deadline.after(Duration.ofMillis(timeoutMs));
+    return chain.filter(exchange)
+        .contextWrite(context -> context.put(Deadline.class, deadline));
+  }
+}
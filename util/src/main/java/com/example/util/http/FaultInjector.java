@@ -0,0 +1,99 @@
+package com.example.util.http;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Adds latency and errors to calls, used for resilience tests. Latency is waited for on a timer,
+// so no thread, neither an event loop nor a worker thread, is occupied while a call is delayed.
+// Faults are configured for all calls, or given per request where the API has parameters for it.
+@Component
+public class FaultInjector {
+
+  public enum Distribution { NONE, FIXED, UNIFORM, EXPONENTIAL }
+
+  private static final Logger LOG = LoggerFactory.getLogger(FaultInjector.class);
+
+  private final Distribution latencyDistribution;
+  private final long latencyMeanMs;
+  private final long latencyMaxMs;
+  private final double errorPercent;
+
+  public FaultInjector(
+      @Value("${app.fault-injection.latency.distribution:NONE}") Distribution latencyDistribution,
+      @Value("${app.fault-injection.latency.meanMs:0}") long latencyMeanMs,
+      @Value("${app.fault-injection.latency.maxMs:10000}") long latencyMaxMs,
+      @Value("${app.fault-injection.errorPercent:0}") double errorPercent
+  ) {
+    this.latencyDistribution = latencyDistribution;
+    this.latencyMeanMs = latencyMeanMs;
+    this.latencyMaxMs = latencyMaxMs;
+    this.errorPercent = errorPercent;
+
+    if (latencyDistribution != Distribution.NONE || errorPercent > 0) {
+      LOG.warn("Fault injection enabled, latency: {} with mean {} ms, errors: {}%",
+          latencyDistribution, latencyMeanMs, errorPercent);
+    }
+  }
+
+  public <T> Mono<T> apply(Mono<T> call) {
+    return apply(call, Duration.ZERO, 0);
+  }
+
+  // The delay and fault percent of the request are added to the configured ones
+  public <T> Mono<T> apply(Mono<T> call, Duration delay, double faultPercent) {
+    return Mono.defer(() -> {
+      Duration totalDelay = delay.plus(sampleLatency());
+      Mono<T> faulty = Mono.defer(() -> isBadLuck(faultPercent) ? Mono.error(fault()) : call);
+
+      if (totalDelay.isZero()) {
+        return faulty;
+      }
+
+      LOG.debug("Delays the call by {} ms", totalDelay.toMillis());
+      return Mono.delay(totalDelay).then(faulty);
+    });
+  }
+
+  public <T> Flux<T> apply(Flux<T> call) {
+    return apply(Mono.just(call), Duration.ZERO, 0).flatMapMany(faultless -> faultless);
+  }
+
+  private Duration sampleLatency() {
+    if (latencyMeanMs <= 0) {
+      return Duration.ZERO;
+    }
+
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    double latencyMs;
+    switch (latencyDistribution) {
+      case FIXED:
+        latencyMs = latencyMeanMs;
+        break;
+      case UNIFORM:
+        latencyMs = random.nextDouble(2.0 * latencyMeanMs);
+        break;
+      case EXPONENTIAL:
+        latencyMs = -latencyMeanMs * Math.log(1 - random.nextDouble());
+        break;
+      default:
+        return Duration.ZERO;
+    }
+    return Duration.ofMillis((long) Math.min(latencyMs, latencyMaxMs));
+  }
+
+  private boolean isBadLuck(double faultPercent) {
+    double percent = Math.min(100, errorPercent + faultPercent);
+    return percent > 0 && ThreadLocalRandom.current().nextDouble(100) < percent;
+  }
+
+  private RuntimeException fault() {
+    LOG.debug("Bad luck, an error occurred");
+    return new RuntimeException("Something went wrong...");
+  }
+}
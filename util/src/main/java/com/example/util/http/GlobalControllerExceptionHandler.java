@@ -1,10 +1,14 @@
 package com.example.util.http;
 
+import static org.springframework.http.HttpStatus.GATEWAY_TIMEOUT;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
 
+import com.example.util.exceptions.DeadlineExceededException;
 import com.example.util.exceptions.InvalidInputException;
 import com.example.util.exceptions.NotFoundException;
+import com.example.util.exceptions.ServiceUnavailableException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
@@ -33,6 +37,20 @@ public class GlobalControllerExceptionHandler {
     return createHttpErrorInfo(UNPROCESSABLE_ENTITY, request, ex);
   }
 
+  @ResponseStatus(SERVICE_UNAVAILABLE)
+  @ExceptionHandler(ServiceUnavailableException.class)
+  @ResponseBody
+  public HttpErrorInfo handleServiceUnavailableException(ServerHttpRequest request, Exception ex) {
+    return createHttpErrorInfo(SERVICE_UNAVAILABLE, request, ex);
+  }
+
+  @ResponseStatus(GATEWAY_TIMEOUT)
+  @ExceptionHandler(DeadlineExceededException.class)
+  @ResponseBody
+  public HttpErrorInfo handleDeadlineExceededException(ServerHttpRequest request, Exception ex) {
+    return createHttpErrorInfo(GATEWAY_TIMEOUT, request, ex);
+  }
+
   private HttpErrorInfo createHttpErrorInfo(
       HttpStatus httpStatus,
       ServerHttpRequest request,
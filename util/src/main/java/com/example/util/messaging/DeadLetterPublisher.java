@@ -0,0 +1,100 @@
+package com.example.util.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+
+// Sends a message that failed for good to the dead letter queue of its binder, where the binders
+// themselves put it when they handle the errors: RabbitMQ's DLX exchange that autoBindDlq binds the
+// queue's DLQ to, and Kafka's error.<topic>.<group> topic. The exception goes along in the same
+// headers the binders use.
+public class DeadLetterPublisher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DeadLetterPublisher.class);
+
+  public static final String EXCEPTION_MESSAGE = "x-exception-message";
+  public static final String EXCEPTION_STACKTRACE = "x-exception-stacktrace";
+
+  private static final String RABBIT_DEAD_LETTER_EXCHANGE = "DLX";
+  private static final int MAX_STACKTRACE_LENGTH = 10_000;
+
+  private final StreamBridge streamBridge;
+  private final ObjectMapper mapper;
+  private final String group;
+
+  public DeadLetterPublisher(StreamBridge streamBridge, ObjectMapper mapper, String group) {
+    this.streamBridge = streamBridge;
+    this.mapper = mapper;
+    this.group = group;
+  }
+
+  // The Rabbit message is republished on the channel it was delivered on, returns false if that
+  // failed, so the caller can still reject it to the DLQ without the exception
+  public boolean publishToRabbit(Message<?> message, Channel channel, Throwable failure) {
+    MessageHeaders headers = message.getHeaders();
+    String queue = headers.get(AmqpHeaders.CONSUMER_QUEUE, String.class);
+    if (queue == null) {
+      return false;
+    }
+
+    Map<String, Object> deadLetterHeaders = new HashMap<>();
+    deadLetterHeaders.put(EXCEPTION_MESSAGE, String.valueOf(failure.getMessage()));
+    deadLetterHeaders.put(EXCEPTION_STACKTRACE, stackTrace(failure));
+    deadLetterHeaders.put("x-original-exchange", headers.get(AmqpHeaders.RECEIVED_EXCHANGE));
+    deadLetterHeaders.put("x-original-routingKey", headers.get(AmqpHeaders.RECEIVED_ROUTING_KEY));
+
+    AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+        .contentType("application/json")
+        .deliveryMode(2)
+        .headers(deadLetterHeaders)
+        .build();
+    try {
+      channel.basicPublish(RABBIT_DEAD_LETTER_EXCHANGE, queue, properties,
+          mapper.writeValueAsBytes(message.getPayload()));
+      return true;
+    } catch (IOException ex) {
+      LOG.warn("Failed to republish a message to the DLQ, rejects it instead", ex);
+      return false;
+    }
+  }
+
+  public boolean publishToKafka(Message<?> message, Throwable failure) {
+    MessageHeaders headers = message.getHeaders();
+    String topic = headers.get(KafkaHeaders.RECEIVED_TOPIC, String.class);
+    Message<?> deadLetter = MessageBuilder.withPayload(message.getPayload())
+        .setHeader(EXCEPTION_MESSAGE, String.valueOf(failure.getMessage()))
+        .setHeader(EXCEPTION_STACKTRACE, stackTrace(failure))
+        .setHeader("x-original-topic", topic)
+        .setHeader("x-original-partition", headers.get(KafkaHeaders.RECEIVED_PARTITION_ID))
+        .setHeader("x-original-offset", headers.get(KafkaHeaders.OFFSET))
+        .build();
+    try {
+      return streamBridge.send("error." + topic + "." + group, "kafka", deadLetter);
+    } catch (RuntimeException ex) {
+      LOG.warn("Failed to send a message to the DLQ topic", ex);
+      return false;
+    }
+  }
+
+  private static String stackTrace(Throwable failure) {
+    StringWriter writer = new StringWriter();
+    failure.printStackTrace(new PrintWriter(writer));
+    String stackTrace = writer.toString();
+    return stackTrace.length() > MAX_STACKTRACE_LENGTH
+        ? stackTrace.substring(0, MAX_STACKTRACE_LENGTH)
+        : stackTrace;
+  }
+}
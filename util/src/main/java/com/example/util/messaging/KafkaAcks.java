@@ -0,0 +1,64 @@
+package com.example.util.messaging;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+
+// Kafka commits one offset per partition, acking a message acks all messages before it in its
+// partition too. Messages processed out of order are therefore acked only once all earlier
+// messages of their partition are done, by acking the last message of the completed prefix.
+class KafkaAcks {
+
+  // By partition, the offsets received and not yet acked, with the ack of the completed ones
+  private final Map<String, TreeMap<Long, Acknowledgment>> pending = new HashMap<>();
+
+  // Called in the order the messages arrive, before any of them can complete
+  synchronized void received(Message<?> message) {
+    String partition = partitionOf(message.getHeaders());
+    Long offset = message.getHeaders().get(KafkaHeaders.OFFSET, Long.class);
+    if (partition != null && offset != null) {
+      pending.computeIfAbsent(partition, key -> new TreeMap<>()).put(offset, null);
+    }
+  }
+
+  void completed(Message<?> message, Acknowledgment acknowledgment) {
+    Acknowledgment prefix = completedPrefix(message.getHeaders(), acknowledgment);
+    if (prefix != null) {
+      prefix.acknowledge();
+    }
+  }
+
+  private synchronized Acknowledgment completedPrefix(
+      MessageHeaders headers,
+      Acknowledgment acknowledgment
+  ) {
+    Long offset = headers.get(KafkaHeaders.OFFSET, Long.class);
+    TreeMap<Long, Acknowledgment> offsets = pending.get(partitionOf(headers));
+    if (offset == null || offsets == null || !offsets.containsKey(offset)) {
+      return acknowledgment;
+    }
+
+    offsets.put(offset, acknowledgment);
+    Acknowledgment last = null;
+    while (!offsets.isEmpty() && offsets.firstEntry().getValue() != null) {
+      last = offsets.pollFirstEntry().getValue();
+    }
+    return last;
+  }
+
+  // Forgets the offsets not yet acked. The messages of a failed stream are never completed, their
+  // offsets would otherwise hold back the acks of the messages received after it.
+  synchronized void clear() {
+    pending.clear();
+  }
+
+  private static String partitionOf(MessageHeaders headers) {
+    String topic = headers.get(KafkaHeaders.RECEIVED_TOPIC, String.class);
+    Integer partition = headers.get(KafkaHeaders.RECEIVED_PARTITION_ID, Integer.class);
+    return topic == null || partition == null ? null : topic + "-" + partition;
+  }
+}
@@ -0,0 +1,280 @@
+package com.example.util.messaging;
+
+import com.example.util.exceptions.EventProcessingException;
+import com.example.util.exceptions.InvalidInputException;
+import com.example.util.exceptions.NotFoundException;
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import reactor.util.retry.RetryBackoffSpec;
+
+// Processes the messages of a reactive binding without blocking, at most maxInFlight at a time.
+// Messages with the same key are processed one after the other in the order they arrived, so e.g.
+// a delete never overtakes the create before it. A failed message is retried with an exponential
+// backoff, up to maxAttempts in all, unless it's invalid and would fail again anyway. With manual
+// acks on the binding a message is acked once it has been processed, or sent to the dead letter
+// queue of its binder, with the exception, if that failed for good. Kafka messages are acked in
+// the order of their offsets, see KafkaAcks.
+// In batch mode messages are collected and processed with one call per batch instead.
+public class ReactiveMessageConsumer<T> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ReactiveMessageConsumer.class);
+
+  private final String name;
+  private final int maxInFlight;
+  private final Function<T, Object> keyOf;
+  private final Function<T, Mono<Void>> processor;
+  private final RetryBackoffSpec retry;
+  private final DeadLetterPublisher deadLetters;
+  private final KafkaAcks kafkaAcks = new KafkaAcks();
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final Counter acked;
+  private final Counter rejected;
+  private final DistributionSummary batchSize;
+
+  public ReactiveMessageConsumer(
+      String name,
+      int maxInFlight,
+      int maxAttempts,
+      Duration retryBackoff,
+      DeadLetterPublisher deadLetters,
+      MeterRegistry meterRegistry,
+      Function<T, Object> keyOf,
+      Function<T, Mono<Void>> processor
+  ) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be at least 1, was " + maxInFlight);
+    }
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("maxAttempts must be at least 1, was " + maxAttempts);
+    }
+    this.name = name;
+    this.maxInFlight = maxInFlight;
+    this.keyOf = keyOf;
+    this.processor = processor;
+    this.retry = Retry.backoff(maxAttempts - 1, retryBackoff)
+        .filter(ex -> !isInvalid(ex))
+        .doBeforeRetry(signal -> LOG.debug("{}: retries a failed message: {}", name,
+            signal.failure().toString()))
+        .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+    this.deadLetters = deadLetters;
+
+    Gauge.builder("messages.in-flight", inFlight, AtomicInteger::get)
+        .description("Messages being processed")
+        .tag("consumer", name)
+        .register(meterRegistry);
+    this.acked = processedCounter(meterRegistry, "acked");
+    this.rejected = processedCounter(meterRegistry, "rejected");
+    this.batchSize = DistributionSummary.builder("messages.batch.size")
+        .description("Messages processed together in one batch")
+        .tag("consumer", name)
+        .register(meterRegistry);
+  }
+
+  public void consume(Flux<Message<T>> messages) {
+    messages
+        .doOnNext(kafkaAcks::received)
+        .groupBy(message -> lane(message.getPayload()))
+        .flatMap(lane -> lane.concatMap(this::process), maxInFlight)
+        // Only a failure of the binding itself ends up here, processing errors are handled above
+        .doOnError(this::streamFailed)
+        .retry()
+        .subscribe();
+  }
+
+  // A batch is processed once maxBatchSize messages are collected or maxBatchWait after its first
+  // one, a batch at a time so the order of the messages is kept. The batch processor gets messages
+  // with distinct keys only, it may write them in any order, and returns the failures by the index
+  // of their message. The rest of the batch is acked. A failed batch is retried like a single
+  // message, then its messages are processed one at a time.
+  public void consumeInBatches(
+      Flux<Message<T>> messages,
+      int maxBatchSize,
+      Duration maxBatchWait,
+      Function<List<T>, Mono<Map<Integer, Throwable>>> batchProcessor
+  ) {
+    messages
+        .doOnNext(kafkaAcks::received)
+        .bufferTimeout(maxBatchSize, maxBatchWait)
+        // A batch that times out while the one before is still processed would fail the stream
+        // without demand for it, it waits here instead. The messages handed out by the broker
+        // but not yet acked, e.g. RabbitMQ's prefetch, bound what can pile up.
+        .onBackpressureBuffer()
+        .concatMap(batch -> Flux.fromIterable(distinctKeyBatches(batch))
+            .concatMap(distinctKeyBatch -> processBatch(distinctKeyBatch, batchProcessor)))
+        .doOnError(this::streamFailed)
+        .retry()
+        .subscribe();
+  }
+
+  // The messages in flight are cancelled with the stream and never acked, Kafka redelivers them
+  // only after a restart or rebalance. The acks of the messages received after subscribing again
+  // must not wait for them.
+  private void streamFailed(Throwable ex) {
+    LOG.error("{}: the message stream failed, subscribes again", name, ex);
+    kafkaAcks.clear();
+  }
+
+  // One lane per permit, keys are spread over the lanes and each lane is processed in order
+  private int lane(T payload) {
+    return Math.floorMod(Objects.hashCode(keyOf.apply(payload)), maxInFlight);
+  }
+
+  // The n:th message with a key goes to the n:th batch, so a key's messages keep their order
+  private List<List<Message<T>>> distinctKeyBatches(List<Message<T>> batch) {
+    List<List<Message<T>>> batches = new ArrayList<>();
+    Map<Object, Integer> batchOfKey = new HashMap<>();
+    for (Message<T> message : batch) {
+      Object key = keyOf.apply(message.getPayload());
+      int index = batchOfKey.merge(key, 0, (last, first) -> last + 1);
+      if (index == batches.size()) {
+        batches.add(new ArrayList<>());
+      }
+      batches.get(index).add(message);
+    }
+    return batches;
+  }
+
+  private static boolean isInvalid(Throwable ex) {
+    return ex instanceof InvalidInputException
+        || ex instanceof NotFoundException
+        || ex instanceof EventProcessingException;
+  }
+
+  private Mono<Void> process(Message<T> message) {
+    return Mono.defer(() -> processor.apply(message.getPayload()))
+        .retryWhen(retry)
+        .doOnSubscribe(subscription -> inFlight.incrementAndGet())
+        .doOnSuccess(done -> processed(message, null))
+        .onErrorResume(ex -> {
+          processed(message, ex);
+          return Mono.empty();
+        })
+        .doFinally(signal -> inFlight.decrementAndGet());
+  }
+
+  private Mono<Void> processBatch(
+      List<Message<T>> batch,
+      Function<List<T>, Mono<Map<Integer, Throwable>>> batchProcessor
+  ) {
+    List<T> payloads = batch.stream().map(Message::getPayload).collect(Collectors.toList());
+    return Mono.defer(() -> batchProcessor.apply(payloads))
+        .retryWhen(retry)
+        .doOnSubscribe(subscription -> {
+          inFlight.addAndGet(batch.size());
+          batchSize.record(batch.size());
+        })
+        .defaultIfEmpty(Map.of())
+        .onErrorResume(ex -> {
+          LOG.warn("{}: failed to process a batch of {} messages, processes them one at a time: {}",
+              name, batch.size(), ex.toString());
+          return Mono.just(IntStream.range(0, batch.size()).boxed()
+              .collect(Collectors.toMap(Function.identity(), index -> ex)));
+        })
+        .doFinally(signal -> inFlight.addAndGet(-batch.size()))
+        .flatMapMany(failures -> Flux.range(0, batch.size())
+            .concatMap(index -> completeOrRetry(batch.get(index), failures.get(index))))
+        .then();
+  }
+
+  // A message that failed in a batch, or with the whole batch, gets another chance on its own,
+  // with the retries of a single message, unless it's invalid
+  private Mono<Void> completeOrRetry(Message<T> message, Throwable failure) {
+    if (failure == null || isInvalid(failure)) {
+      processed(message, failure);
+      return Mono.empty();
+    }
+    return process(message);
+  }
+
+  private void processed(Message<T> message, Throwable failure) {
+    if (failure == null) {
+      ack(message);
+      acked.increment();
+    } else {
+      LOG.warn("{}: failed to process a message, rejects it: {}", name, failure.toString());
+      reject(message, failure);
+      rejected.increment();
+    }
+  }
+
+  private void ack(Message<T> message) {
+    MessageHeaders headers = message.getHeaders();
+    Channel channel = headers.get(AmqpHeaders.CHANNEL, Channel.class);
+    Long deliveryTag = headers.get(AmqpHeaders.DELIVERY_TAG, Long.class);
+    if (channel != null && deliveryTag != null) {
+      try {
+        channel.basicAck(deliveryTag, false);
+      } catch (IOException ex) {
+        LOG.warn("{}: failed to ack message {}, it will be redelivered", name, deliveryTag, ex);
+      }
+    }
+
+    Acknowledgment acknowledgment = headers.get(KafkaHeaders.ACKNOWLEDGMENT, Acknowledgment.class);
+    if (acknowledgment != null) {
+      kafkaAcks.completed(message, acknowledgment);
+    }
+  }
+
+  // A Rabbit message that can't be republished is still rejected to the DLQ, without the exception.
+  // A Kafka message that can't be sent to the DLQ topic is not acked, which holds back the acks of
+  // its partition, so it's redelivered after a restart instead of being lost.
+  private void reject(Message<T> message, Throwable failure) {
+    MessageHeaders headers = message.getHeaders();
+    Channel channel = headers.get(AmqpHeaders.CHANNEL, Channel.class);
+    Long deliveryTag = headers.get(AmqpHeaders.DELIVERY_TAG, Long.class);
+    if (channel != null && deliveryTag != null) {
+      try {
+        if (deadLetters.publishToRabbit(message, channel, failure)) {
+          channel.basicAck(deliveryTag, false);
+        } else {
+          channel.basicReject(deliveryTag, false);
+        }
+      } catch (IOException ex) {
+        LOG.warn("{}: failed to reject message {}, it will be redelivered", name, deliveryTag, ex);
+      }
+      return;
+    }
+
+    Acknowledgment acknowledgment = headers.get(KafkaHeaders.ACKNOWLEDGMENT, Acknowledgment.class);
+    if (acknowledgment != null) {
+      if (deadLetters.publishToKafka(message, failure)) {
+        kafkaAcks.completed(message, acknowledgment);
+      } else {
+        LOG.error("{}: failed to dead letter a message, leaves it unacked: {}", name,
+            message.getPayload());
+      }
+    }
+  }
+
+  private Counter processedCounter(MeterRegistry meterRegistry, String result) {
+    return Counter.builder("messages.processed")
+        .description("Messages processed, by whether they were acked or rejected")
+        .tags("consumer", name, "result", result)
+        .register(meterRegistry);
+  }
+}
@@ -0,0 +1,227 @@
+package com.example.util.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.example.util.exceptions.InvalidInputException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class ReactiveMessageConsumerTests {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final StreamBridge streamBridge = mock(StreamBridge.class);
+  private final AtomicInteger attempts = new AtomicInteger();
+
+  @Test
+  void ackKafkaMessagesInOffsetOrder() {
+    KafkaAcks kafkaAcks = new KafkaAcks();
+    Acknowledgment first = mock(Acknowledgment.class);
+    Acknowledgment second = mock(Acknowledgment.class);
+    Acknowledgment third = mock(Acknowledgment.class);
+    Message<String> message0 = kafkaMessage("a", 0, first);
+    Message<String> message1 = kafkaMessage("b", 1, second);
+    Message<String> message2 = kafkaMessage("c", 2, third);
+    kafkaAcks.received(message0);
+    kafkaAcks.received(message1);
+    kafkaAcks.received(message2);
+
+    // Acking offset 1 before offset 0 is done would commit offset 0 too
+    kafkaAcks.completed(message1, second);
+    verify(second, never()).acknowledge();
+
+    kafkaAcks.completed(message0, first);
+    verify(first, never()).acknowledge();
+    verify(second).acknowledge();
+
+    kafkaAcks.completed(message2, third);
+    verify(third).acknowledge();
+  }
+
+  @Test
+  void ackMessagesAfterStreamFailedWithMessageInFlight() {
+    Acknowledgment cancelled = mock(Acknowledgment.class);
+    Acknowledgment acknowledgment = mock(Acknowledgment.class);
+    AtomicInteger subscriptions = new AtomicInteger();
+    // The first subscription fails while offset 0 is processed, the second one delivers offset 1
+    Flux<Message<String>> messages = Flux.defer(() -> subscriptions.getAndIncrement() == 0
+        ? Flux.just(kafkaMessage("a", 0, cancelled))
+            .concatWith(Flux.error(new IllegalStateException("Binding failed")))
+        : Flux.just(kafkaMessage("b", 1, acknowledgment)));
+    consumer(1, payload -> payload.equals("a") ? Mono.never() : Mono.empty()).consume(messages);
+    awaitProcessed();
+
+    verify(acknowledgment).acknowledge();
+    verify(cancelled, never()).acknowledge();
+    assertThat(subscriptions).hasValue(2);
+  }
+
+  @Test
+  void retryFailedMessage() {
+    Acknowledgment acknowledgment = mock(Acknowledgment.class);
+    consumer(3, payload -> attempts.incrementAndGet() == 1
+        ? Mono.error(new IllegalStateException("Transient failure"))
+        : Mono.empty())
+        .consume(Flux.just(kafkaMessage("a", 0, acknowledgment)));
+    awaitProcessed();
+
+    verify(acknowledgment).acknowledge();
+    assertThat(attempts).hasValue(2);
+    assertThat(processedMessages("acked")).isOne();
+  }
+
+  @Test
+  void deadLetterMessageThatFailsForGood() {
+    when(streamBridge.send(any(), any(), any())).thenReturn(true);
+    Acknowledgment acknowledgment = mock(Acknowledgment.class);
+    consumer(3, payload -> {
+      attempts.incrementAndGet();
+      return Mono.error(new IllegalStateException("Permanent failure"));
+    }).consume(Flux.just(kafkaMessage("a", 0, acknowledgment)));
+    awaitProcessed();
+
+    InOrder order = inOrder(streamBridge, acknowledgment);
+    order.verify(streamBridge).send(eq("error.topic.group"), eq("kafka"), any());
+    order.verify(acknowledgment).acknowledge();
+    assertThat(attempts).hasValue(3);
+    assertThat(processedMessages("rejected")).isOne();
+  }
+
+  @Test
+  void noRetryForInvalidMessage() {
+    when(streamBridge.send(any(), any(), any())).thenReturn(true);
+    Acknowledgment acknowledgment = mock(Acknowledgment.class);
+    consumer(3, payload -> {
+      attempts.incrementAndGet();
+      return Mono.error(new InvalidInputException("Invalid message"));
+    }).consume(Flux.just(kafkaMessage("a", 0, acknowledgment)));
+    awaitProcessed();
+
+    verify(acknowledgment).acknowledge();
+    assertThat(attempts).hasValue(1);
+    assertThat(processedMessages("rejected")).isOne();
+  }
+
+  @Test
+  void leaveMessageUnackedWhenDeadLetteringFails() {
+    when(streamBridge.send(any(), any(), any())).thenReturn(false);
+    Acknowledgment acknowledgment = mock(Acknowledgment.class);
+    consumer(1, payload -> Mono.error(new IllegalStateException("Permanent failure")))
+        .consume(Flux.just(kafkaMessage("a", 0, acknowledgment)));
+    awaitProcessed();
+
+    verify(streamBridge).send(any(), any(), any());
+    verify(acknowledgment, never()).acknowledge();
+  }
+
+  @Test
+  void keepUpWithTimedOutBatchesDuringSlowWrites() {
+    Sinks.Many<Message<String>> messages = Sinks.many().multicast().onBackpressureBuffer();
+    List<String> written = new CopyOnWriteArrayList<>();
+    consumer(1, payload -> Mono.empty()).consumeInBatches(messages.asFlux(), 5,
+        Duration.ofMillis(10), payloads -> Mono.delay(Duration.ofMillis(100))
+            .doOnNext(tick -> written.addAll(payloads))
+            .thenReturn(Map.of()));
+
+    // Messages arrive slower than the batches time out, but faster than a batch is written
+    for (int i = 0; i < 20; i++) {
+      messages.tryEmitNext(message("m" + i));
+      sleep(Duration.ofMillis(20));
+    }
+    awaitProcessed(20);
+
+    assertThat(written).hasSize(20).doesNotHaveDuplicates();
+    assertThat(processedMessages("acked")).isEqualTo(20);
+  }
+
+  @Test
+  void processMessagesOneAtATimeWhenBatchFails() {
+    List<String> processed = new CopyOnWriteArrayList<>();
+    consumer(1, payload -> Mono.fromRunnable(() -> processed.add(payload))).consumeInBatches(
+        Flux.just(message("a"), message("b"), message("c")), 10, Duration.ofMillis(10),
+        payloads -> Mono.error(new IllegalStateException("Batch failed")));
+    awaitProcessed(3);
+
+    assertThat(processed).containsExactly("a", "b", "c");
+    assertThat(processedMessages("acked")).isEqualTo(3);
+  }
+
+  private ReactiveMessageConsumer<String> consumer(
+      int maxAttempts,
+      Function<String, Mono<Void>> processor
+  ) {
+    return new ReactiveMessageConsumer<>(
+        "test",
+        4,
+        maxAttempts,
+        Duration.ofMillis(10),
+        new DeadLetterPublisher(streamBridge, new ObjectMapper(), "group"),
+        meterRegistry,
+        Function.identity(),
+        processor
+    );
+  }
+
+  private static Message<String> message(String payload) {
+    return MessageBuilder.withPayload(payload).build();
+  }
+
+  private static void sleep(Duration duration) {
+    try {
+      Thread.sleep(duration.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static Message<String> kafkaMessage(
+      String payload,
+      long offset,
+      Acknowledgment acknowledgment
+  ) {
+    return MessageBuilder.withPayload(payload)
+        .setHeader(KafkaHeaders.RECEIVED_TOPIC, "topic")
+        .setHeader(KafkaHeaders.RECEIVED_PARTITION_ID, 0)
+        .setHeader(KafkaHeaders.OFFSET, offset)
+        .setHeader(KafkaHeaders.ACKNOWLEDGMENT, acknowledgment)
+        .build();
+  }
+
+  private void awaitProcessed() {
+    awaitProcessed(1);
+  }
+
+  // Messages are processed asynchronously, retries wait for their backoff
+  private void awaitProcessed(int count) {
+    Mono.fromSupplier(() -> processedMessages("acked") + processedMessages("rejected"))
+        .filter(processed -> processed >= count)
+        .repeatWhenEmpty(repeats -> repeats.delayElements(Duration.ofMillis(10)))
+        .block(Duration.ofSeconds(5));
+  }
+
+  private double processedMessages(String result) {
+    return meterRegistry.get("messages.processed").tag("result", result).counter().count();
+  }
+}
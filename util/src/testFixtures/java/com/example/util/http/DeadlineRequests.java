@@ -0,0 +1,29 @@
+package com.example.util.http;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+public final class DeadlineRequests {
+
+  private DeadlineRequests() {
+  }
+
+  // Sends a GET request with the given timeout in the deadline header
+  public static WebTestClient.BodyContentSpec getWithDeadline(
+      WebTestClient client,
+      String uri,
+      long timeoutMs,
+      HttpStatus expectedStatus
+  ) {
+    return client.get()
+        .uri(uri)
+        .header(Deadline.HEADER, String.valueOf(timeoutMs))
+        .accept(APPLICATION_JSON)
+        .exchange()
+        .expectStatus().isEqualTo(expectedStatus)
+        .expectHeader().contentType(APPLICATION_JSON)
+        .expectBody();
+  }
+}